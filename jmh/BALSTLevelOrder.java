@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import bench.LevelOrder;
+
+/**
+ * The level-order algorithms of a BALST as seen by the JMH benchmarks,
+ * see bench.LevelOrder.
+ */
+public class BALSTLevelOrder implements LevelOrder {
+
+    private final BALST<Integer, Integer> tree = new BALST<>();
+
+    /**
+     * @param n number of keys; multiplying by an odd constant spreads them
+     *          pseudo-randomly without repeating one
+     */
+    public BALSTLevelOrder(int n) throws Exception {
+        for (int i = 0; i < n; i++)
+            tree.insert(i * 0x9E3779B1, i);
+    }
+
+    public List<?> singlePass() {
+        return tree.getLevelOrderTraversal();
+    }
+
+    public List<?> perLevel() {
+        BSTNode<Integer, Integer> root = tree.getRootNode();
+        List<Integer> list = new ArrayList<>();
+        int height = height(root);
+        for (int level = 1; level <= height; level++)
+            collect(root, level, list);
+        return list;
+    }
+
+    private static int height(BSTNode<?, ?> node) {
+        return node == null ? 0 : 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private static void collect(BSTNode<Integer, Integer> node, int level, List<Integer> list) {
+        if (node == null)
+            return;
+        if (level == 1)
+            list.add(node.key);
+        else {
+            collect(node.left, level - 1, list);
+            collect(node.right, level - 1, list);
+        }
+    }
+}
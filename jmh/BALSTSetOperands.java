@@ -0,0 +1,59 @@
+import java.util.concurrent.ForkJoinPool;
+
+import bench.SetOperands;
+
+/**
+ * The set operations of BALST as seen by the JMH benchmarks, see
+ * bench.SetOperands. One tree holds the first n multiples of 2 and the
+ * other the first n multiples of 3, so a third of the keys of either tree
+ * are in both.
+ */
+public class BALSTSetOperands implements SetOperands {
+
+    private final int n;
+
+    /* persistent, copying or consuming */
+    private final String mode;
+
+    private BALST<Integer, Integer> a;
+
+    private BALST<Integer, Integer> b;
+
+    /**
+     * @param n    keys per tree
+     * @param mode persistent for persistent inputs, copying for plain ones
+     *             that combine copies first, consuming for plain ones that
+     *             combine takes apart
+     */
+    public BALSTSetOperands(int n, String mode) throws Exception {
+        if (!mode.equals("persistent") && !mode.equals("copying") && !mode.equals("consuming"))
+            throw new IllegalArgumentException("unknown mode: " + mode);
+        this.n = n;
+        this.mode = mode;
+        prepare();
+    }
+
+    public void prepare() throws Exception {
+        // the other modes leave their inputs as they were
+        if (a == null || a.numKeys() == 0) {
+            a = load(n, 2);
+            b = load(n, 3);
+        }
+    }
+
+    public Object combine(String operation, ForkJoinPool pool) {
+        return BALST.combine(BALST.SetOperation.valueOf(operation), a, b, mode.equals("consuming"), pool);
+    }
+
+    /**
+     * @return a tree of the first n multiples of step
+     */
+    private BALST<Integer, Integer> load(int n, int step) throws Exception {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = i * step;
+        BALST<Integer, Integer> tree = BALST.bulkLoad(keys, keys);
+        tree.setPersistent(mode.equals("persistent"));
+        return tree;
+    }
+}
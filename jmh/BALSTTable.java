@@ -0,0 +1,57 @@
+import java.util.Iterator;
+
+import bench.Table;
+
+/**
+ * BALST as seen by the JMH benchmarks, see bench.Table.
+ *
+ * @param <K> is the generic type of key
+ */
+public class BALSTTable<K extends Comparable<K>> implements Table<K> {
+
+    private final BALST<K, K> tree;
+
+    private final String variant;
+
+    public BALSTTable() {
+        this("AVL");
+    }
+
+    /**
+     * @param variant a BALST.Balancing; or adaptive, an AVL tree that
+     *                reorganizes on read once per numKeys() lookups; or
+     *                cached, an AVL tree with a lookup cache of 1% of its
+     *                keys
+     */
+    public BALSTTable(String variant) {
+        this.variant = variant;
+        boolean avl = variant.equals("adaptive") || variant.equals("cached");
+        tree = new BALST<>(avl ? BALST.Balancing.AVL : BALST.Balancing.valueOf(variant));
+    }
+
+    public void insert(K key) throws Exception { tree.insert(key, key); }
+
+    public Object get(K key) throws Exception { return tree.get(key); }
+
+    public boolean contains(K key) throws Exception { return tree.contains(key); }
+
+    public void remove(K key) throws Exception { tree.remove(key); }
+
+    public long traverse(String order) {
+        long count = 0;
+        for (Iterator<K> it = tree.keyIterator(BALST.Order.valueOf(order)); it.hasNext(); it.next())
+            count++;
+        return count;
+    }
+
+    public int height() { return tree.getHeight(); }
+
+    public long rotations() { return tree.numRotations(); }
+
+    public void filled() {
+        if (variant.equals("adaptive"))
+            tree.setAdaptive(Math.max(1, tree.numKeys()), true);
+        else if (variant.equals("cached"))
+            tree.setLookupCache(Math.max(1, tree.numKeys() / 100));
+    }
+}
@@ -0,0 +1,42 @@
+import bench.Table;
+
+/**
+ * BPlusTree as seen by the JMH benchmarks, see bench.Table. Its only
+ * traversal is the in-order one along the leaves.
+ *
+ * @param <K> is the generic type of key
+ */
+public class BPlusTreeTable<K extends Comparable<K>> implements Table<K> {
+
+    private final BPlusTree<K, K> tree;
+
+    public BPlusTreeTable() {
+        tree = new BPlusTree<>();
+    }
+
+    /**
+     * @param fanOut the fan-out of the tree, in decimal
+     */
+    public BPlusTreeTable(String fanOut) {
+        tree = new BPlusTree<>(Integer.parseInt(fanOut));
+    }
+
+    public void insert(K key) throws Exception { tree.insert(key, key); }
+
+    public Object get(K key) throws Exception { return tree.get(key); }
+
+    public boolean contains(K key) throws Exception { return tree.contains(key); }
+
+    public void remove(K key) throws Exception { tree.remove(key); }
+
+    public long traverse(String order) {
+        if (!order.equals("IN_ORDER"))
+            return -1;
+        long count = 0;
+        for (K ignored : tree)
+            count++;
+        return count;
+    }
+
+    public int height() { return tree.getHeight(); }
+}
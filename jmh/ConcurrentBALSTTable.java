@@ -0,0 +1,36 @@
+import bench.Table;
+
+/**
+ * ConcurrentBALST as seen by the JMH benchmarks, see bench.Table. Writes
+ * that lose a race to another thread are ignored. It has no traversal.
+ *
+ * @param <K> is the generic type of key
+ */
+public class ConcurrentBALSTTable<K extends Comparable<K>> implements Table<K> {
+
+    private final ConcurrentBALST<K, K> tree = new ConcurrentBALST<>();
+
+    public void insert(K key) throws Exception {
+        try {
+            tree.insert(key, key);
+        } catch (DuplicateKeyException e) {
+            // another thread inserted key first
+        }
+    }
+
+    public Object get(K key) throws Exception { return tree.get(key); }
+
+    public boolean contains(K key) throws Exception { return tree.contains(key); }
+
+    public void remove(K key) throws Exception {
+        try {
+            tree.remove(key);
+        } catch (KeyNotFoundException e) {
+            // another thread removed key first
+        }
+    }
+
+    public long traverse(String order) { return -1; }
+
+    public int height() { return tree.getHeight(); }
+}
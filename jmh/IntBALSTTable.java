@@ -0,0 +1,24 @@
+import bench.Table;
+
+/**
+ * IntBALST as seen by the JMH benchmarks, see bench.Table. Its only
+ * traversal is the in-order one of toSortedArray.
+ */
+public class IntBALSTTable implements Table<Integer> {
+
+    private final IntBALST<Integer> tree = new IntBALST<>();
+
+    public void insert(Integer key) throws Exception { tree.insert(key.intValue(), key); }
+
+    public Object get(Integer key) throws Exception { return tree.get(key.intValue()); }
+
+    public boolean contains(Integer key) { return tree.contains(key.intValue()); }
+
+    public void remove(Integer key) throws Exception { tree.remove(key.intValue()); }
+
+    public long traverse(String order) {
+        return order.equals("IN_ORDER") ? tree.toSortedArray().length : -1;
+    }
+
+    public int height() { return tree.getHeight(); }
+}
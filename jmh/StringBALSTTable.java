@@ -0,0 +1,29 @@
+import bench.Table;
+
+/**
+ * StringBALST as seen by the JMH benchmarks, see bench.Table. Its only
+ * traversal is the in-order one of its iterator.
+ */
+public class StringBALSTTable implements Table<String> {
+
+    private final StringBALST<String> tree = new StringBALST<>();
+
+    public void insert(String key) throws Exception { tree.insert(key, key); }
+
+    public Object get(String key) throws Exception { return tree.get(key); }
+
+    public boolean contains(String key) throws Exception { return tree.contains(key); }
+
+    public void remove(String key) throws Exception { tree.remove(key); }
+
+    public long traverse(String order) {
+        if (!order.equals("IN_ORDER"))
+            return -1;
+        long count = 0;
+        for (String ignored : tree)
+            count++;
+        return count;
+    }
+
+    public int height() { return tree.getHeight(); }
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of lookups drawn from a Zipf distribution in a plain BALST,
+ * one in adaptive mode and one with a lookup cache of 1% of its keys.
+ * <p>
+ * An exponent of 0 draws uniformly. The key of popularity rank i is a
+ * random key, so hot keys are spread over the whole tree rather than
+ * clustered. The adaptive tree reorganizes on read once per size lookups,
+ * so it has learned the distribution by the end of the warm-up and keeps
+ * adapting while it is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class AdaptiveBenchmark {
+
+    private static final int PROBES = 1 << 22;
+
+    @Param({"BALST", "BALST/adaptive", "BALST/cached"})
+    public String impl;
+
+    @Param({"0", "0.8", "1", "1.2"})
+    public double exponent;
+
+    @Param({"1000000"})
+    public int size;
+
+    private Table<Integer> table;
+
+    private Integer[] probes;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        table = Tables.filled(impl, size);
+        probes = Tables.zipf(size, PROBES, exponent, 7);
+    }
+
+    @Benchmark
+    public Object get() throws Exception {
+        return table.get(probes[next++ & (PROBES - 1)]);
+    }
+}
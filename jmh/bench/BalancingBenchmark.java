@@ -0,0 +1,101 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per operation of the balancing strategies of BALST on a
+ * write-heavy and a read-heavy mix, with the writes and the rotations
+ * they made reported as secondary results, so rotations per write is the
+ * ratio of the two.
+ * <p>
+ * The tree starts with size random keys out of twice that range. Each
+ * operation picks a random key in the range; writePercent of them are
+ * writes, which remove the key if it is present and insert it otherwise,
+ * and the rest are contains. Both keep the size of the tree about
+ * constant.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BalancingBenchmark {
+
+    private static final int OPERATIONS = 1 << 20;
+
+    @Param({"AVL", "RED_BLACK", "WAVL", "TREAP"})
+    public String balancing;
+
+    @Param({"90", "10"})
+    public int writePercent;
+
+    @Param({"1000000"})
+    public int size;
+
+    private Table<Integer> table;
+
+    private Integer[] keys;
+
+    private boolean[] writes;
+
+    private int next;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long writes;
+
+        public long rotations;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            writes = 0;
+            rotations = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        table = Tables.filled("BALST/" + balancing, size);
+        Random random = new Random(6);
+        keys = new Integer[OPERATIONS];
+        writes = new boolean[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            keys[i] = random.nextInt(2 * size);
+            writes[i] = random.nextInt(100) < writePercent;
+        }
+    }
+
+    @Benchmark
+    public boolean mixed(Counters counters) throws Exception {
+        int i = next++ & (OPERATIONS - 1);
+        Integer key = keys[i];
+        if (!writes[i])
+            return table.contains(key);
+        long before = table.rotations();
+        if (table.contains(key))
+            table.remove(key);
+        else
+            table.insert(key);
+        counters.writes++;
+        counters.rotations += table.rotations() - before;
+        return true;
+    }
+}
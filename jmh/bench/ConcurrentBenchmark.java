@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of ConcurrentBALST against ConcurrentSkipListMap under read
+ * and write mixes of 95/5, 50/50 and 5/95, on 4 threads by default; run
+ * with -t 1, -t 16 and so on for other thread counts.
+ * <p>
+ * The table holds the even keys below 2 size and each operation picks a
+ * random key below that. A read is a contains; a write removes the key if
+ * it is present and inserts it otherwise, so the size stays about the
+ * same.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentBenchmark {
+
+    @Param({"ConcurrentBALST", "ConcurrentSkipListMap"})
+    public String impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"95", "50", "5"})
+    public int readPercent;
+
+    private Table<Integer> table;
+
+    @Setup
+    public void setUp() throws Exception {
+        table = Tables.create(impl);
+        for (int i = 0; i < 2 * size; i += 2)
+            table.insert(i);
+    }
+
+    @Benchmark
+    public boolean mixed() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer key = random.nextInt(2 * size);
+        if (random.nextInt(100) < readPercent)
+            return table.contains(key);
+        if (table.contains(key))
+            table.remove(key);
+        else
+            table.insert(key);
+        return true;
+    }
+}
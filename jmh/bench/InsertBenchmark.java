@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to build a table of size keys by inserting them one at a time
+ * into an empty one, per key order. The score is per table; divide it by
+ * size for the time per insert, and gc.alloc.rate.norm of -prof gc by
+ * size for the bytes per insert.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+    @Param({"BALST", "IntBALST", "BPlusTree", "TreeMap", "ConcurrentSkipListMap"})
+    public String impl;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"sequential", "reverse", "random", "zipf"})
+    public String order;
+
+    private Integer[] keys;
+
+    @Setup
+    public void setUp() {
+        keys = Tables.insertOrder(order, size);
+    }
+
+    @Benchmark
+    public Table<Integer> insert() throws Exception {
+        Table<Integer> table = Tables.create(impl);
+        for (Integer key : keys)
+            table.insert(key);
+        return table;
+    }
+}
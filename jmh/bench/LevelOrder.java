@@ -0,0 +1,23 @@
+package bench;
+
+import java.util.List;
+
+/**
+ * A BALST of Integer keys with the two level-order algorithms that
+ * LevelOrderBenchmark compares, reached like the trees behind Table.
+ */
+public interface LevelOrder {
+
+    /**
+     * @return the keys level by level, from getLevelOrderTraversal, which
+     *         walks the tree once breadth first
+     */
+    List<?> singlePass();
+
+    /**
+     * @return the keys level by level, from the algorithm BALST used
+     *         before: an O(n) height, then one descent from the root for
+     *         every level, O(n h) overall
+     */
+    List<?> perLevel();
+}
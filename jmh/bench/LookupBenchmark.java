@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of single lookups in a table of size keys. The keys looked
+ * up are drawn uniformly or with a Zipf distribution; the misses are the
+ * same keys plus one, which fall between two keys of the table. BPlusTree
+ * runs at the smallest, the default and the largest fan-out.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    private static final int PROBES = 1 << 20;
+
+    @Param({"BALST", "IntBALST", "BPlusTree/16", "BPlusTree/64", "BPlusTree/256", "TreeMap", "ConcurrentSkipListMap"})
+    public String impl;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"uniform", "zipf"})
+    public String distribution;
+
+    private Table<Integer> table;
+
+    private Integer[] hits;
+
+    private Integer[] misses;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        table = Tables.filled(impl, size);
+        if (distribution.equals("zipf")) {
+            hits = Tables.zipf(size, PROBES, 0.99, 5);
+        } else {
+            Integer[] keys = Tables.shuffled(size, 5);
+            hits = new Integer[PROBES];
+            for (int i = 0; i < PROBES; i++)
+                hits[i] = keys[i % size];
+        }
+        misses = new Integer[PROBES];
+        for (int i = 0; i < PROBES; i++)
+            misses[i] = hits[i] + 1;
+    }
+
+    @Benchmark
+    public Object get() throws Exception {
+        return table.get(hits[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsHit() throws Exception {
+        return table.contains(hits[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() throws Exception {
+        return table.contains(misses[next++ & (PROBES - 1)]);
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to empty a table of size keys by removing them in random order.
+ * Every iteration is one shot on a table filled before it, untimed; the
+ * score is per table, so divide it by size for the time per remove. The
+ * gc profiler counts the bytes of that fill too, so look at the
+ * allocation of the other benchmarks instead.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RemoveBenchmark {
+
+    @Param({"BALST", "IntBALST", "BPlusTree", "TreeMap", "ConcurrentSkipListMap"})
+    public String impl;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Integer[] keys;
+
+    private Table<Integer> table;
+
+    @Setup(Level.Trial)
+    public void setUpKeys() {
+        keys = Tables.shuffled(size, 4);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpTable() throws Exception {
+        table = Tables.filled(impl, size);
+    }
+
+    @Benchmark
+    public Table<Integer> remove() throws Exception {
+        for (Integer key : keys)
+            table.remove(key);
+        return table;
+    }
+}
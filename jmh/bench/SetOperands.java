@@ -0,0 +1,22 @@
+package bench;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Two BALSTs to run the fork-join set operations on, reached like the
+ * trees behind Table.
+ */
+public interface SetOperands {
+
+    /**
+     * Refills the trees if the last operation consumed them.
+     */
+    void prepare() throws Exception;
+
+    /**
+     * @param operation UNION, INTERSECTION or DIFFERENCE
+     * @param pool      the pool to run it on
+     * @return the resulting tree
+     */
+    Object combine(String operation, ForkJoinPool pool);
+}
@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of the fork-join union, intersection and difference of two BALSTs
+ * of size keys each, on pools of 1 to 32 threads. The speedup over one
+ * thread is the ratio of the scores.
+ * <p>
+ * The mode says what the inputs are: persistent trees used as they are,
+ * plain trees that combine first copies (the O(n) copy is part of the
+ * score), or plain trees that the consuming variant takes apart in place.
+ * Consumed trees are rebuilt before every invocation, outside the timing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SetOperationBenchmark {
+
+    @Param({"UNION", "INTERSECTION", "DIFFERENCE"})
+    public String operation;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int threads;
+
+    @Param({"2000000"})
+    public int size;
+
+    @Param({"persistent", "copying", "consuming"})
+    public String mode;
+
+    private SetOperands operands;
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        operands = Tables.setOperands(size, mode);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() throws Exception {
+        operands.prepare();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Object combine() {
+        return operands.combine(operation, pool);
+    }
+}
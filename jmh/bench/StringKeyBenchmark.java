@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of lookups of URL keys that share long prefixes in
+ * StringBALST against BALST&lt;String&gt;. The key bytes each tree stores
+ * and the characters each lookup compares are checked by StringBALSTTest.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class StringKeyBenchmark {
+
+    private static final int PROBES = 1 << 20;
+
+    @Param({"BALST", "StringBALST", "TreeMap"})
+    public String impl;
+
+    @Param({"1000000"})
+    public int size;
+
+    private Table<String> table;
+
+    private String[] probes;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        String[] keys = new String[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = String.format("https://www.example.com/catalog/%06d/item-%08d", random.nextInt(size / 100 + 1), i);
+        table = Tables.create(impl);
+        for (String key : keys)
+            table.insert(key);
+        probes = new String[PROBES];
+        for (int i = 0; i < PROBES; i++)
+            probes[i] = keys[random.nextInt(size)];
+    }
+
+    @Benchmark
+    public Object get() throws Exception {
+        return table.get(probes[next++ & (PROBES - 1)]);
+    }
+}
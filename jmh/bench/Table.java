@@ -0,0 +1,54 @@
+package bench;
+
+/**
+ * The operations the benchmarks measure.
+ * <p>
+ * The trees of this project live in the default package, which the
+ * benchmarks cannot import since JMH needs them in a named one. Each tree
+ * is reached through an adapter in the default package that implements
+ * this interface, see Tables.create; the baselines go through adapters
+ * too, so every implementation pays the same interface call.
+ * <p>
+ * Tables that may be written by several threads at once ignore an insert
+ * of a key that is present and a remove of one that is not, since another
+ * thread may have changed the key since it was looked up.
+ *
+ * @param <K> is the generic type of key; values are the keys themselves
+ */
+public interface Table<K> {
+
+    void insert(K key) throws Exception;
+
+    Object get(K key) throws Exception;
+
+    boolean contains(K key) throws Exception;
+
+    void remove(K key) throws Exception;
+
+    /**
+     * @param order name of a BALST.Order
+     * @return the number of keys visited in that order, or -1 if the
+     *         implementation has no such traversal
+     */
+    long traverse(String order);
+
+    /**
+     * @return the height of the tree, or -1 if the implementation has none
+     */
+    int height();
+
+    /**
+     * @return the rotations inserts and removes have made, or -1 if the
+     *         implementation does not count them
+     */
+    default long rotations() {
+        return -1;
+    }
+
+    /**
+     * Called by Tables.filled once the keys are in, so a variant can size
+     * itself to the table before it is measured.
+     */
+    default void filled() {
+    }
+}
@@ -0,0 +1,175 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Creates the tables the benchmarks run on and the keys they use. Keys
+ * are the even numbers 0, 2, ..., 2(n - 1), so adding one to a key gives
+ * a key that misses.
+ */
+public final class Tables {
+
+    private Tables() {
+    }
+
+    /**
+     * @param impl TreeMap or ConcurrentSkipListMap for a baseline, or the
+     *             name of a tree for the adapter named after it, like BALST
+     *             for BALSTTable; a variant the adapter takes follows a
+     *             slash, like BALST/RED_BLACK or BPlusTree/16
+     * @return an empty table; the caller picks keys the implementation takes
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Table<K> create(String impl) {
+        switch (impl) {
+            case "TreeMap":
+                return new MapTable<>(new TreeMap<>());
+            case "ConcurrentSkipListMap":
+                return new MapTable<>(new ConcurrentSkipListMap<>());
+            default:
+                int slash = impl.indexOf('/');
+                try {
+                    if (slash < 0)
+                        return (Table<K>) Class.forName(impl + "Table").getDeclaredConstructor().newInstance();
+                    return (Table<K>) Class.forName(impl.substring(0, slash) + "Table")
+                            .getDeclaredConstructor(String.class).newInstance(impl.substring(slash + 1));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("unknown implementation: " + impl, e);
+                }
+        }
+    }
+
+    /**
+     * @return a BALST of n keys to run the level-order algorithms on
+     */
+    public static LevelOrder levelOrder(int n) {
+        try {
+            return (LevelOrder) Class.forName("BALSTLevelOrder").getDeclaredConstructor(int.class).newInstance(n);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param mode persistent, copying or consuming, see SetOperationBenchmark
+     * @return two BALSTs of n keys each to run the set operations on
+     */
+    public static SetOperands setOperands(int n, String mode) {
+        try {
+            return (SetOperands) Class.forName("BALSTSetOperands").getDeclaredConstructor(int.class, String.class)
+                    .newInstance(n, mode);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a table holding the n keys, inserted in random order
+     */
+    public static Table<Integer> filled(String impl, int n) throws Exception {
+        Table<Integer> table = create(impl);
+        for (Integer key : shuffled(n, 1))
+            table.insert(key);
+        table.filled();
+        return table;
+    }
+
+    /**
+     * @param order sequential, reverse, random or zipf; zipf gives the
+     *              distinct keys of n Zipf draws in the order they are
+     *              first drawn, so the hot keys come first
+     * @return keys to insert, none twice
+     */
+    public static Integer[] insertOrder(String order, int n) {
+        switch (order) {
+            case "sequential":
+                return sequential(n);
+            case "reverse": {
+                Integer[] keys = sequential(n);
+                Collections.reverse(Arrays.asList(keys));
+                return keys;
+            }
+            case "random":
+                return shuffled(n, 2);
+            case "zipf":
+                return new LinkedHashSet<>(Arrays.asList(zipf(n, n, 0.99, 3))).toArray(new Integer[0]);
+            default:
+                throw new IllegalArgumentException("unknown order: " + order);
+        }
+    }
+
+    /**
+     * @return the n keys in ascending order
+     */
+    public static Integer[] sequential(int n) {
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = 2 * i;
+        return keys;
+    }
+
+    /**
+     * @return a random permutation of the n keys
+     */
+    public static Integer[] shuffled(int n, long seed) {
+        List<Integer> keys = new ArrayList<>(Arrays.asList(sequential(n)));
+        Collections.shuffle(keys, new Random(seed));
+        return keys.toArray(new Integer[0]);
+    }
+
+    /**
+     * Draws count of the n keys with a Zipf distribution, the key of
+     * popularity rank i with probability proportional to 1 / (i + 1)^exponent,
+     * the ranks following a random permutation of the keys. An exponent of
+     * 0 draws uniformly.
+     */
+    public static Integer[] zipf(int n, int count, double exponent, long seed) {
+        Integer[] ranked = shuffled(n, seed);
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(seed);
+        Integer[] draws = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            draws[i] = ranked[Math.min(rank < 0 ? -rank - 1 : rank, n - 1)];
+        }
+        return draws;
+    }
+
+    private static final class MapTable<K> implements Table<K> {
+        final NavigableMap<K, K> map;
+
+        MapTable(NavigableMap<K, K> map) { this.map = map; }
+
+        public void insert(K key) { map.putIfAbsent(key, key); }
+
+        public Object get(K key) { return map.get(key); }
+
+        public boolean contains(K key) { return map.containsKey(key); }
+
+        public void remove(K key) { map.remove(key); }
+
+        public long traverse(String order) {
+            if (!order.equals("IN_ORDER"))
+                return -1;
+            long count = 0;
+            for (K ignored : map.keySet())
+                count++;
+            return count;
+        }
+
+        public int height() { return -1; }
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to walk every key of a table of size keys, and the cost of
+ * getHeight. inOrder runs on every implementation; the other orders only
+ * exist in BALST, so traverse runs on BALST alone, once per order, and
+ * getHeight on the trees alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TraversalBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class AnyTable {
+
+        @Param({"BALST", "IntBALST", "BPlusTree", "TreeMap", "ConcurrentSkipListMap"})
+        public String impl;
+
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public int size;
+
+        Table<Integer> table;
+
+        @Setup
+        public void setUp() throws Exception {
+            table = Tables.filled(impl, size);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+
+        @Param({"BALST", "IntBALST", "BPlusTree"})
+        public String impl;
+
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public int size;
+
+        Table<Integer> table;
+
+        @Setup
+        public void setUp() throws Exception {
+            table = Tables.filled(impl, size);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class OrderedBALST {
+
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public int size;
+
+        @Param({"IN_ORDER", "PRE_ORDER", "POST_ORDER", "LEVEL_ORDER"})
+        public String traversal;
+
+        Table<Integer> table;
+
+        @Setup
+        public void setUp() throws Exception {
+            table = Tables.filled("BALST", size);
+        }
+    }
+
+    @Benchmark
+    public long inOrder(AnyTable state) {
+        return state.table.traverse("IN_ORDER");
+    }
+
+    @Benchmark
+    public long traverse(OrderedBALST state) {
+        return state.table.traverse(state.traversal);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int getHeight(Tree state) {
+        return state.table.height();
+    }
+}
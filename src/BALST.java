@@ -1,19 +1,421 @@
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * BALST constructs an AVL tree and holds its many functions
+ * BALST constructs a balanced search tree and holds its many functions.
+ * It is an AVL tree unless another Balancing strategy is chosen when it is
+ * constructed.
  *
  * @param <K> is the generic type of key
  * @param <V> is the generic type of value
  */
-public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
+public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V>, Iterable<K> {
+
+    /**
+     * The four traversal orders the iterators can walk in.
+     */
+    public enum Order { IN_ORDER, PRE_ORDER, POST_ORDER, LEVEL_ORDER }
+
+    /**
+     * How insert and remove keep the tree balanced. All strategies share the
+     * same nodes and rotations and differ only in when they rotate:
+     * <ul>
+     * <li>AVL keeps the heights of sibling subtrees within 1 of each other,
+     * so it has the shortest paths and the most rotations;</li>
+     * <li>RED_BLACK allows paths twice as long as the shortest, and rotates
+     * at most twice per insert and three times per remove;</li>
+     * <li>WAVL (weak AVL) rebalances inserts exactly like AVL but at most
+     * twice per remove, and matches red-black height bounds if removes
+     * dominate;</li>
+     * <li>TREAP keeps the nodes heap-ordered by random priorities, which
+     * makes the tree balanced on average with no bookkeeping on the way up
+     * but no height guarantee.</li>
+     * </ul>
+     * The join-based operations (insertAll, removeAll, split, join and the
+     * set operations) are only O(log n) per node for AVL trees; with other
+     * strategies they fall back to one-at-a-time inserts and removes or an
+     * O(n) rebuild, as documented on each.
+     */
+    public enum Balancing { AVL, RED_BLACK, WAVL, TREAP }
+
+    private final Balancing balancing;
+
+    /* the order of the keys; null means their natural order */
+    private final Comparator<? super K> comparator;
 
     private BSTNode<K, V> root;
 
     private int numKeys;
 
+    private long numRotations;
+
+    /* bumped by every structural change so iterators can fail fast */
+    private int modCount;
+
+    /* lazy deletion: 0 means removed nodes are unlinked at once */
+    private double maxDeadRatio;
+
+    private int numDeadNodes;
+
+    private int numCompactions;
+
+    /* where print() writes */
+    private BALSTPrintSink printSink = new BALSTPrintSink();
+
+    /* persistent mode: writes copy the nodes they change instead of mutating them */
+    private boolean persistent;
+
+    private boolean snapshotTaken;
+
+    private final boolean readOnly;
+
+    /* opt-in instrumentation; null (the default) keeps it off the hot paths */
+    private BALSTMetrics metrics;
+
+    /* adaptive mode: reorganize by access frequency every adaptivePeriod lookups, 0 means off */
+    private int adaptivePeriod;
+
+    private boolean reorganizeOnRead;
+
+    private int lookupsSinceReorganization;
+
+    /* lookups per key since the last reorganization, by the key object of its node; only kept in adaptive mode */
+    private IdentityHashMap<K, int[]> hits;
+
+    private int numReorganizations;
+
+    /* optional cache of lookup results in front of the tree, null when off */
+    private BALSTLookupCache<K, V> cache;
+
+    /* AVL_MIN_SIZE[h] is the fewest nodes an AVL tree of height h can have */
+    private static final long[] AVL_MIN_SIZE = new long[64];
+
+    static {
+        AVL_MIN_SIZE[1] = 1;
+        for (int h = 2; h < AVL_MIN_SIZE.length; h++)
+            AVL_MIN_SIZE[h] = Math.min(Long.MAX_VALUE / 2, AVL_MIN_SIZE[h - 1] + AVL_MIN_SIZE[h - 2] + 1);
+    }
+
     public BALST() {
+        this(Balancing.AVL, null);
+    }
+
+    /**
+     * @param balancing how insert and remove keep the tree balanced
+     */
+    public BALST(Balancing balancing) {
+        this(balancing, null);
+    }
+
+    /**
+     * Creates an AVL tree ordered by comparator instead of by compareTo.
+     *
+     * @param comparator the order of the keys, or null for their natural order
+     */
+    public BALST(Comparator<? super K> comparator) {
+        this(Balancing.AVL, comparator);
+    }
+
+    /**
+     * @param balancing  how insert and remove keep the tree balanced
+     * @param comparator the order of the keys, or null for their natural order
+     */
+    public BALST(Balancing balancing, Comparator<? super K> comparator) {
+        if (balancing == null)
+            throw new IllegalArgumentException("balancing must not be null");
+        this.balancing = balancing;
+        this.comparator = comparator;
+        readOnly = false;
+    }
+
+    /**
+     * Creates a read-only view sharing the nodes of source.
+     *
+     * @param source
+     */
+    private BALST(BALST<K, V> source) {
+        balancing = source.balancing;
+        comparator = source.comparator;
+        root = source.root;
+        numKeys = source.numKeys;
+        numDeadNodes = source.numDeadNodes;
+        numCompactions = source.numCompactions;
+        printSink = new BALSTPrintSink(source.printSink);
+        persistent = true;
+        readOnly = true;
+    }
+
+    /**
+     * Turns persistent mode on or off.
+     * <p>
+     * In persistent mode no write ever changes an existing node. Insert and
+     * remove copy the O(log n) nodes on their path (and the few nodes they
+     * rotate) and link the copies into a new root, which is what makes
+     * snapshot() possible. Nodes that no version refers to any more are left
+     * to the garbage collector.
+     *
+     * @param persistent
+     * @throws IllegalStateException if turned off after a snapshot was taken
+     */
+    public void setPersistent(boolean persistent) {
+        checkWritable();
+        if (!persistent && snapshotTaken)
+            throw new IllegalStateException("snapshots depend on persistent mode");
+        this.persistent = persistent;
+    }
+
+    /**
+     * Returns an immutable point-in-time view of this tree in O(1).
+     * <p>
+     * The view shares every node with this tree, and later writes to this
+     * tree never change it, so the view can be read and traversed from other
+     * threads without any locking. Writes to the view throw
+     * UnsupportedOperationException.
+     *
+     * @return a read-only BALST holding the current keys
+     * @throws IllegalStateException if persistent mode is off
+     */
+    public BALST<K, V> snapshot() {
+        if (!persistent)
+            throw new IllegalStateException("snapshot() requires persistent mode");
+        snapshotTaken = true;
+        return readOnly ? this : new BALST<>(this);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if this tree is a snapshot
+     */
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("snapshots are read-only");
+    }
+
+    /**
+     * Returns node itself, or in persistent mode a copy of it that the
+     * caller may change freely.
+     *
+     * @param node
+     * @return a node safe to modify
+     */
+    private BSTNode<K, V> edit(BSTNode<K, V> node) {
+        return persistent ? new BSTNode<K, V>(node) : node;
+    }
+
+    /**
+     * @return the comparator that orders the keys, or null if they are in
+     *         their natural order
+     */
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Compares two keys in the order of this tree. Every key comparison of
+     * the tree goes through here.
+     *
+     * @return a negative number, 0 or a positive number as a is smaller
+     *         than, equal to or greater than b
+     */
+    int compare(K a, K b) {
+        return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+    }
+
+    /**
+     * @return the balancing strategy this tree was constructed with
+     */
+    public Balancing getBalancing() {
+        return balancing;
+    }
+
+    /**
+     * Returns how many single rotations insert and remove have made since
+     * the tree was created; a double rotation counts as two. Divided by the
+     * number of writes, this tells how much a workload pays for the
+     * balancing strategy. The rotations of join, split, the batch and the
+     * set operations are not balancing costs of single writes and are not
+     * counted, which also keeps the parallel set operations from racing on
+     * the count.
+     */
+    public long numRotations() {
+        return numRotations;
+    }
+
+    /**
+     * Starts recording rotations, comparisons, lookup depths and operation
+     * latencies into metrics, or stops recording if metrics is null. One
+     * metrics object may be shared by several trees.
+     *
+     * @param metrics where to record, or null
+     */
+    public void setMetrics(BALSTMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics this tree records into, or null if it records none
+     */
+    public BALSTMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Turns adaptive mode on for skewed lookup workloads, or off with a
+     * period of 0.
+     * <p>
+     * In adaptive mode every lookup counts a hit on the key it finds, and
+     * once period lookups have been made the tree is reorganized: the nodes
+     * are relinked in O(n log n) into the AVL tree that brings the most
+     * often hit keys nearest the root, see reorganize(). Because the result
+     * is still an AVL tree, no lookup ever takes more than 1.44 log2(n)
+     * comparisons, however skewed the hits were. A period of at least
+     * numKeys() keeps the amortized cost of reorganizing within O(log n)
+     * per lookup, the order of the lookup itself.
+     * <p>
+     * With reorganizeOnRead, the lookup that completes a period reorganizes
+     * the tree right away, which changes its shape and fails any iterator
+     * in use. Without it, lookups only count hits and never change the
+     * shape; the reorganization waits for the next insert or remove, or for
+     * an explicit call to reorganize(). Either way lookups write the hit
+     * counts, so a tree in adaptive mode must not be read by several
+     * threads at once.
+     *
+     * @param period            lookups between reorganizations, 0 to turn adaptive mode off
+     * @param reorganizeOnRead  whether lookups may reorganize the tree themselves
+     * @throws IllegalArgumentException if period is negative
+     */
+    public void setAdaptive(int period, boolean reorganizeOnRead) {
+        if (period < 0)
+            throw new IllegalArgumentException("period must not be negative: " + period);
+        checkWritable();
+        adaptivePeriod = period;
+        this.reorganizeOnRead = reorganizeOnRead;
+        lookupsSinceReorganization = 0;
+        hits = period == 0 ? null : new IdentityHashMap<>();
+    }
+
+    /**
+     * Returns how many times the tree has been reorganized by access frequency.
+     */
+    public int numReorganizations() {
+        return numReorganizations;
+    }
+
+    /**
+     * Puts a cache of up to capacity lookup results in front of get,
+     * getOrDefault, find and contains, or removes it with a capacity of 0.
+     * <p>
+     * A cached key is answered with one hash lookup instead of a descent,
+     * which pays off for hot keys whose compareTo is expensive, like long
+     * strings. Results for keys that are not in the tree are cached too.
+     * Evictions follow the CLOCK algorithm. insert, remove and put drop
+     * just the key they write; writes that move many keys at once, like
+     * split and join, drop the whole cache. Keys must have equals and
+     * hashCode consistent with their natural order. A tree with a
+     * comparator cannot rely on that, since keys the comparator finds
+     * equal may hash differently, so there every write drops the whole
+     * cache. Reads write to the cache, so a tree with a cache must not be
+     * read by several threads at once.
+     *
+     * @param capacity most results to cache, 0 to remove the cache
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public void setLookupCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        checkWritable();
+        cache = capacity == 0 ? null : new BALSTLookupCache<>(capacity);
+    }
+
+    /**
+     * Returns how many lookups the cache answered, 0 without a cache.
+     */
+    public long numCacheHits() {
+        return cache == null ? 0 : cache.hits();
+    }
+
+    /**
+     * Returns how many lookups went past the cache to the tree, 0 without a cache.
+     */
+    public long numCacheMisses() {
+        return cache == null ? 0 : cache.misses();
+    }
+
+    /**
+     * Returns the fraction of lookups the cache answered, 0 if there were none.
+     */
+    public double cacheHitRatio() {
+        long total = numCacheHits() + numCacheMisses();
+        return total == 0 ? 0 : (double) numCacheHits() / total;
+    }
+
+    /**
+     * Drops every cached lookup result for key, or all of them if key is
+     * null; called before a write that may change what a lookup returns.
+     * With a comparator the results of other keys equal to key are cached
+     * under those keys, so all of them are dropped.
+     */
+    private void invalidate(K key) {
+        if (cache != null) {
+            if (key == null || comparator != null)
+                cache.clear();
+            else
+                cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Switches between physical and lazy deletion.
+     * <p>
+     * With a ratio of 0 (the default) remove unlinks the node right away.
+     * With a ratio in (0, 1] remove only marks the node as removed, and the
+     * tree is compacted once dead nodes make up more than that fraction of
+     * all nodes. Turning lazy deletion off compacts the tree immediately.
+     *
+     * @param maxDeadRatio largest allowed fraction of dead nodes, or 0
+     * @throws IllegalArgumentException if maxDeadRatio is not in [0, 1]
+     */
+    public void setLazyDeletion(double maxDeadRatio) {
+        if (!(maxDeadRatio >= 0 && maxDeadRatio <= 1))
+            throw new IllegalArgumentException("maxDeadRatio must be in [0, 1]: " + maxDeadRatio);
+        checkWritable();
+        this.maxDeadRatio = maxDeadRatio;
+        if (maxDeadRatio == 0)
+            compact();
+    }
+
+    /**
+     * Gives classes in this package that walk the nodes themselves, like
+     * ConcurrentBALST, access to the root.
+     *
+     * @return the root node, or null if the tree is empty
+     */
+    BSTNode<K, V> getRootNode() {
+        return root;
     }
 
     /**
@@ -24,7 +426,7 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
      */
     @Override
     public K getKeyAtRoot() {
-        return root.key;
+        return root == null ? null : root.key;
     }
 
     /**
@@ -42,11 +444,11 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
         if (key == null)
             throw new IllegalNullKeyException();
         else {
-            BSTNode<K, V> node = search(root, key);
+            BSTNode<K, V> node = search(key);
             if (node == null)
                 throw new KeyNotFoundException();
             else
-                return node.left.key;
+                return node.left == null ? null : node.left.key;
         }
     }
 
@@ -65,11 +467,11 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
         if (key == null)
             throw new IllegalNullKeyException();
         else {
-            BSTNode<K, V> node = search(root, key);
+            BSTNode<K, V> node = search(key);
             if (node == null)
                 throw new KeyNotFoundException();
             else
-                return node.right.key;
+                return node.right == null ? null : node.right.key;
         }
     }
 
@@ -93,23 +495,134 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
      */
     @Override
     public int getHeight() {
-        if (root == null)
-            return 0;
-        if (root.left == null && root.right == null)
-            return 1;
-        else
-            return heightHelper(root);
+        return height(root);
+    }
+
+    /**
+     * Cheap balance check for production use: verifies a few random
+     * root-to-leaf paths, see verifyInvariants(int).
+     *
+     * @return false if a violation was found on the sampled paths
+     */
+    public boolean isBalanced() {
+        try {
+            verifyInvariants(32);
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks every node in O(n): keys are in search order, stored heights
+     * and balance factors match the children, every node meets the rule of
+     * the balancing strategy (for AVL, no balance factor is outside
+     * [-1, 1]), and numKeys and numDeadNodes match the nodes actually linked.
+     *
+     * @throws IllegalStateException describing the first violation found
+     */
+    public void verifyInvariants() {
+        int[] counts = new int[2];
+        verifySubtree(root, null, null, counts);
+        if (size(root) != numKeys)
+            throw new IllegalStateException("numKeys is " + numKeys + " but the root counts " + size(root) + " keys");
+        if (counts[0] != numKeys)
+            throw new IllegalStateException("numKeys is " + numKeys + " but " + counts[0] + " live nodes are linked");
+        if (counts[1] != numDeadNodes)
+            throw new IllegalStateException("numDeadNodes is " + numDeadNodes + " but " + counts[1] + " dead nodes are linked");
+    }
+
+    /**
+     * Checks the nodes on the given number of random root-to-leaf paths,
+     * O(paths * log n). Every node on a path gets the same checks as in
+     * verifyInvariants(), against its children's stored heights.
+     *
+     * @param paths number of paths to sample
+     * @throws IllegalStateException describing the first violation found
+     */
+    public void verifyInvariants(int paths) {
+        if (size(root) != numKeys)
+            throw new IllegalStateException("numKeys is " + numKeys + " but the root counts " + size(root) + " keys");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < paths; i++) {
+            K low = null;
+            K high = null;
+            for (BSTNode<K, V> node = root; node != null; ) {
+                verifyNode(node, low, high);
+                if (random.nextBoolean()) {
+                    high = node.key;
+                    node = node.left;
+                } else {
+                    low = node.key;
+                    node = node.right;
+                }
+            }
+        }
     }
 
     /**
      * @param node
-     * @return
+     * @param low    every key in the subtree must be greater, null for no bound
+     * @param high   every key in the subtree must be smaller, null for no bound
+     * @param counts receives the number of live and dead nodes
+     * @return the real height of the subtree
      */
-    private int heightHelper(BSTNode<K, V> node) {
+    private int verifySubtree(BSTNode<K, V> node, K low, K high, int[] counts) {
         if (node == null)
             return 0;
-        else
-            return 1 + Math.max(heightHelper(node.left), heightHelper(node.right));
+        int leftHeight = verifySubtree(node.left, low, node.key, counts);
+        int rightHeight = verifySubtree(node.right, node.key, high, counts);
+        verifyNode(node, low, high);
+        if (node.height != 1 + Math.max(leftHeight, rightHeight))
+            throw new IllegalStateException("stored height of " + node.key + " is wrong");
+        counts[node.removed ? 1 : 0]++;
+        return node.height;
+    }
+
+    /**
+     * @param node
+     * @param low
+     * @param high
+     * @throws IllegalStateException if node breaks an invariant locally
+     */
+    private void verifyNode(BSTNode<K, V> node, K low, K high) {
+        if ((low != null && compare(node.key, low) <= 0) || (high != null && compare(node.key, high) >= 0))
+            throw new IllegalStateException(node.key + " is out of search order");
+        int leftHeight = height(node.left);
+        int rightHeight = height(node.right);
+        if (node.height != 1 + Math.max(leftHeight, rightHeight) || node.balanceFactor != leftHeight - rightHeight)
+            throw new IllegalStateException("height or balance factor of " + node.key + " does not match its children");
+        if (node.size != size(node.left) + size(node.right) + (node.removed ? 0 : 1))
+            throw new IllegalStateException("size of " + node.key + " does not match its children");
+        switch (balancing) {
+        case RED_BLACK:
+            // a 0-child is red; a red node has black children
+            for (BSTNode<K, V> child : parts(node.left, node.right)) {
+                int difference = node.rank - rank(child);
+                if (difference != 0 && difference != 1)
+                    throw new IllegalStateException(node.key + " has a child of rank difference " + difference);
+                if (child != null && difference == 0 && (rank(child.left) == child.rank || rank(child.right) == child.rank))
+                    throw new IllegalStateException(child.key + " is red and has a red child");
+            }
+            break;
+        case WAVL:
+            for (BSTNode<K, V> child : parts(node.left, node.right)) {
+                int difference = node.rank - rank(child);
+                if (difference != 1 && difference != 2)
+                    throw new IllegalStateException(node.key + " has a child of rank difference " + difference);
+            }
+            if (node.left == null && node.right == null && node.rank != 1)
+                throw new IllegalStateException("leaf " + node.key + " has rank " + node.rank);
+            break;
+        case TREAP:
+            for (BSTNode<K, V> child : parts(node.left, node.right))
+                if (child != null && child.rank > node.rank)
+                    throw new IllegalStateException(child.key + " has a higher priority than its parent " + node.key);
+            break;
+        default:
+            if (node.balanceFactor < -1 || node.balanceFactor > 1)
+                throw new IllegalStateException(node.key + " is out of balance: " + node.balanceFactor);
+        }
     }
 
     /**
@@ -122,31 +635,7 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
      */
     @Override
     public List<K> getInOrderTraversal() {
-        List<K> list = new ArrayList<>();
-        if (root == null)
-            return list;
-        else {
-            inOrderHelper(root, list);
-            return list;
-        }
-    }
-
-    /**
-     * @param node
-     * @param list
-     */
-    private void inOrderHelper(BSTNode<K, V> node, List<K> list) {
-        if (node == null)
-            return;
-
-        /* first recur on left child */
-        inOrderHelper(node.left, list);
-
-        /* then print the data of node */
-        list.add(node.key);
-
-        /* now recur on right child */
-        inOrderHelper(node.right, list);
+        return toList(keyIterator(Order.IN_ORDER));
     }
 
     /**
@@ -159,31 +648,7 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
      */
     @Override
     public List<K> getPreOrderTraversal() {
-        List<K> list = new ArrayList<>();
-        if (root == null)
-            return list;
-        else {
-            preOrderHelper(root, list);
-            return list;
-        }
-    }
-
-    /**
-     * @param node
-     * @param list
-     */
-    private void preOrderHelper(BSTNode<K, V> node, List<K> list) {
-        if (node == null)
-            return;
-
-        /* first print data of node */
-        list.add(node.key);
-
-        /* then recur on left sutree */
-        preOrderHelper(node.left, list);
-
-        /* now recur on right subtree */
-        preOrderHelper(node.right, list);
+        return toList(keyIterator(Order.PRE_ORDER));
     }
 
     /**
@@ -196,260 +661,2047 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
      */
     @Override
     public List<K> getPostOrderTraversal() {
-        List<K> list = new ArrayList<>();
-        if (root == null)
-            return list;
-        else {
-            postOrderHelper(root, list);
-            return list;
-        }
+        return toList(keyIterator(Order.POST_ORDER));
     }
 
     /**
-     * @param node
-     * @param list
+     * @param iterator
+     * @return a list holding everything left in iterator
      */
-    private void postOrderHelper(BSTNode<K, V> node, List<K> list) {
-        if (node == null)
-            return;
+    private List<K> toList(Iterator<K> iterator) {
+        List<K> list = new ArrayList<>(numKeys);
+        while (iterator.hasNext())
+            list.add(iterator.next());
+        return list;
+    }
 
-        // first recur on left subtree
-        postOrderHelper(node.left, list);
+    /**
+     * Returns the keys in sorted order, see keyIterator.
+     */
+    @Override
+    public Iterator<K> iterator() {
+        return keyIterator(Order.IN_ORDER);
+    }
 
-        // then recur on right subtree
-        postOrderHelper(node.right, list);
+    /**
+     * Returns a lazy iterator over the keys in the given order. Nothing is
+     * copied up front: the iterator keeps an explicit stack no deeper than
+     * the tree (a queue for level order), so stopping early costs nothing
+     * and no recursion is involved. The tree must not be changed while the
+     * iterator is in use, or ConcurrentModificationException is thrown.
+     *
+     * @param order traversal order
+     * @return iterator over the keys
+     */
+    public Iterator<K> keyIterator(Order order) {
+        return nodeIterator(order, false);
+    }
 
-        // now deal with the node
-        list.add(node.key);
+    /**
+     * Returns a lazy iterator over the key,value pairs in the given order.
+     * The entries are immutable. See keyIterator.
+     *
+     * @param order traversal order
+     * @return iterator over the entries
+     */
+    public Iterator<Map.Entry<K, V>> entryIterator(Order order) {
+        return nodeIterator(order, true);
     }
 
     /**
-     * Returns the keys of the data structure in level-order traversal order.
-     * <p>
-     * The root is first in the list, then the keys found in the next level down,
-     * and so on.
-     * <p>
-     * If the SearchTree is empty, an empty list is returned.
+     * Returns a lazy in-order iterator over the keys between low and high.
+     * It starts with an O(log n) descent to low and then costs O(1)
+     * amortized per key, so a scan of k keys is O(log n + k) with no
+     * intermediate list. A null bound means no bound on that side.
      *
-     * @return List of Keys in level-order
+     * @param low           smallest key, or null
+     * @param lowInclusive  whether low itself is included
+     * @param high          largest key, or null
+     * @param highInclusive whether high itself is included
+     * @return iterator over the keys in range
      */
-    @Override
-    public List<K> getLevelOrderTraversal() {
-        List<K> list = new ArrayList<>();
-        int height = getHeight();
-        for (int level = 1; level <= height; level++)
-            levelOrderHelper(root, level, list);
-        return list;
+    public Iterator<K> rangeIterator(K low, boolean lowInclusive, K high, boolean highInclusive) {
+        return new RangeIterator<>(low, lowInclusive, high, highInclusive, false, false);
     }
 
     /**
-     * @param node
-     * @param level
-     * @param list
+     * Like rangeIterator, optionally from high to low and over entries.
      */
-    private void levelOrderHelper(BSTNode<K, V> node, int level, List<K> list) {
-        if (root == null)
-            return;
-        if (level == 1)
-            list.add(node.key);
-        else if (level > 1) {
-            if (node.left != null)
-                levelOrderHelper(node.left, level - 1, list);
-            if (node.right != null)
-                levelOrderHelper(node.right, level - 1, list);
-        }
+    <T> Iterator<T> rangeIterator(K low, boolean lowInclusive, K high, boolean highInclusive, boolean descending, boolean entries) {
+        return new RangeIterator<>(low, lowInclusive, high, highInclusive, descending, entries);
     }
 
     /**
-     * Add the key,value pair to the data structure and increase the number of keys.
-     * If key is null, throw IllegalNullKeyException;
-     * If key is already in data structure, throw DuplicateKeyException();
-     * Do not increase the num of keys in the structure, if key,value pair is not added.
+     * Returns a sorted spliterator over the keys. It splits off whole
+     * subtrees, so a parallel stream fans out across cores without copying.
+     *
+     * @return spliterator over the keys in order
      */
     @Override
-    public void insert(K key, V value) throws IllegalNullKeyException, DuplicateKeyException {
-        if (key == null)
-            throw new IllegalNullKeyException();
-        else if (root == null) {
-            numKeys++;
-            root = new BSTNode<K, V>(key, value);
-        } else if (contains(key))
-            throw new DuplicateKeyException();
-        else if (key.compareTo(root.key) > 0)
-            insertHelper(root, key, value, null);
-        else
-            insertHelper(root, key, value, null);
-        updateHeightAndBalanceFactor();
-        balanceTree();
+    public Spliterator<K> spliterator() {
+        return new NodeSpliterator<>(null, root, false);
     }
 
     /**
-     * @param node
-     * @param key
-     * @param value
-     * @param parent
+     * Returns a sorted spliterator over the key,value pairs, see spliterator().
+     *
+     * @return spliterator over the entries in key order
      */
-    private void insertHelper(BSTNode<K, V> node, K key, V value, BSTNode<K, V> parent) throws IllegalNullKeyException {
-        if (node == null) {
-            if (key.compareTo(parent.key) > 0) {
-                parent.right = new BSTNode<K, V>(key, value);
-                numKeys++;
-            } else {
-                parent.left = new BSTNode<K, V>(key, value);
-                numKeys++;
-            }
-        } else if (key.compareTo(node.key) > 0)
-            insertHelper(node.right, key, value, node);
-        else
-            insertHelper(node.left, key, value, node);
+    public Spliterator<Map.Entry<K, V>> entrySpliterator() {
+        return new NodeSpliterator<>(null, root, true);
     }
 
     /**
-     * @param node
-     * @return
-     * @throws IllegalNullKeyException
+     * @return a sequential stream of the keys in order; call parallel() to fan out
      */
-    private BSTNode<K, V> rightRotation(BSTNode<K, V> node) throws IllegalNullKeyException {
-        BSTNode<K, V> leftChild = node.left;
-        BSTNode<K, V> leftGrandChild = null;
-        if (leftChild != null) {
-            leftGrandChild = leftChild.right;
-            leftChild.right = node;
-            node.left = leftGrandChild;
-        }
-        updateHeightAndBalanceFactor();
-        return leftChild;
+    public Stream<K> keyStream() {
+        return StreamSupport.stream(spliterator(), false);
     }
 
     /**
-     * @param node
-     * @return
-     * @throws IllegalNullKeyException
+     * @return a sequential stream of the entries in key order; call parallel() to fan out
      */
-    private BSTNode<K, V> leftRotation(BSTNode<K, V> node) throws IllegalNullKeyException {
-        BSTNode<K, V> rightChild = node.right;
-        BSTNode<K, V> rightGrandChild = null;
-        if (rightChild != null) {
-            rightGrandChild = rightChild.left;
-            rightChild.left = node;
-            node.right = rightGrandChild;
-        }
-        updateHeightAndBalanceFactor();
-        return rightChild;
+    public Stream<Map.Entry<K, V>> entryStream() {
+        return StreamSupport.stream(entrySpliterator(), false);
     }
 
     /**
-     * @throws IllegalNullKeyException
+     * @param order
+     * @param entries true to yield entries, false to yield keys
+     * @return iterator over the whole tree
      */
-    private void updateHeightAndBalanceFactor() throws IllegalNullKeyException {
-        List<K> list = getInOrderTraversal();
-        for (int i = 0; i < list.size(); i++)
-            search(root, list.get(i)).height = heightHelper(search(root, list.get(i)));
-        for (int i = 0; i < list.size(); i++) {
-            BSTNode<K, V> node = search(root, list.get(i));
-            if (node.right == null && node.left == null)
-                node.balanceFactor = 0;
-            else if (node.right == null)
-                node.balanceFactor = node.left.height;
-            else if (node.left == null)
-                node.balanceFactor = 0 - node.right.height;
+    private <T> Iterator<T> nodeIterator(Order order, boolean entries) {
+        switch (order) {
+            case PRE_ORDER:
+                return new PreOrderIterator<>(root, entries);
+            case POST_ORDER:
+                return new PostOrderIterator<>(root, entries);
+            case LEVEL_ORDER:
+                return new LevelOrderIterator<>(root, entries);
+            default:
+                return new InOrderIterator<>(root, entries);
+        }
+    }
+
+    /**
+     * @param node
+     * @return a stack deep enough to walk the subtree rooted at node
+     */
+    private static <K, V> BSTNode<K, V>[] newStack(BSTNode<K, V> node) {
+        return newNodes(height(node) + 1);
+    }
+
+    /**
+     * @param length
+     * @return an array of length null nodes
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> BSTNode<K, V>[] newNodes(int length) {
+        return (BSTNode<K, V>[]) new BSTNode[length];
+    }
+
+    /**
+     * Base of the traversal iterators. Subclasses only produce the next node
+     * in their order; this class skips removed nodes, checks for concurrent
+     * changes and maps each node to a key or an entry.
+     */
+    private abstract class NodeIterator<T> implements Iterator<T> {
+
+        private final boolean entries;
+
+        private final int expectedModCount = modCount;
+
+        private BSTNode<K, V> next;
+
+        private boolean ready;
+
+        NodeIterator(boolean entries) {
+            this.entries = entries;
+        }
+
+        /**
+         * @return the next node in this order, or null when done
+         */
+        abstract BSTNode<K, V> step();
+
+        @Override
+        public boolean hasNext() {
+            if (!ready) {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                do
+                    next = step();
+                while (next != null && next.removed);
+                ready = true;
+            }
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ready = false;
+            return entries ? (T) new AbstractMap.SimpleImmutableEntry<>(next.key, next.value) : (T) next.key;
+        }
+    }
+
+    /**
+     * In-order (or reverse in-order) walk restricted to a key range. The
+     * stack starts as the path to the first key in range, and the walk stops
+     * at the first key past the other end.
+     */
+    private final class RangeIterator<T> extends NodeIterator<T> {
+
+        private final K low;
+        private final boolean lowInclusive;
+        private final K high;
+        private final boolean highInclusive;
+        private final boolean descending;
+
+        private final BSTNode<K, V>[] stack = newStack(root);
+
+        private int size;
+
+        RangeIterator(K low, boolean lowInclusive, K high, boolean highInclusive, boolean descending, boolean entries) {
+            super(entries);
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.descending = descending;
+            BSTNode<K, V> node = root;
+            while (node != null)
+                if (descending ? !tooHigh(node.key) : !tooLow(node.key)) {
+                    stack[size++] = node;
+                    node = descending ? node.right : node.left;
+                } else
+                    node = descending ? node.left : node.right;
+        }
+
+        private boolean tooLow(K key) {
+            if (low == null)
+                return false;
+            int compare = compare(key, low);
+            return compare < 0 || (compare == 0 && !lowInclusive);
+        }
+
+        private boolean tooHigh(K key) {
+            if (high == null)
+                return false;
+            int compare = compare(key, high);
+            return compare > 0 || (compare == 0 && !highInclusive);
+        }
+
+        @Override
+        BSTNode<K, V> step() {
+            if (size == 0)
+                return null;
+            BSTNode<K, V> node = stack[--size];
+            if (descending ? tooLow(node.key) : tooHigh(node.key)) {
+                size = 0;
+                return null;
+            }
+            for (BSTNode<K, V> next = descending ? node.left : node.right; next != null; next = descending ? next.right : next.left)
+                stack[size++] = next;
+            return node;
+        }
+    }
+
+    /**
+     * L V R using a stack of the nodes whose right subtree is still pending.
+     */
+    private final class InOrderIterator<T> extends NodeIterator<T> {
+
+        private final BSTNode<K, V>[] stack;
+
+        private int size;
+
+        InOrderIterator(BSTNode<K, V> node, boolean entries) {
+            super(entries);
+            stack = newStack(node);
+            pushLeft(node);
+        }
+
+        private void pushLeft(BSTNode<K, V> node) {
+            for (; node != null; node = node.left)
+                stack[size++] = node;
+        }
+
+        @Override
+        BSTNode<K, V> step() {
+            if (size == 0)
+                return null;
+            BSTNode<K, V> node = stack[--size];
+            pushLeft(node.right);
+            return node;
+        }
+    }
+
+    /**
+     * V L R using a stack of the subtrees still to visit.
+     */
+    private final class PreOrderIterator<T> extends NodeIterator<T> {
+
+        private final BSTNode<K, V>[] stack;
+
+        private int size;
+
+        PreOrderIterator(BSTNode<K, V> node, boolean entries) {
+            super(entries);
+            stack = newStack(node);
+            if (node != null)
+                stack[size++] = node;
+        }
+
+        @Override
+        BSTNode<K, V> step() {
+            if (size == 0)
+                return null;
+            BSTNode<K, V> node = stack[--size];
+            if (node.right != null)
+                stack[size++] = node.right;
+            if (node.left != null)
+                stack[size++] = node.left;
+            return node;
+        }
+    }
+
+    /**
+     * L R V using the path from the root and the last node visited.
+     */
+    private final class PostOrderIterator<T> extends NodeIterator<T> {
+
+        private final BSTNode<K, V>[] stack;
+
+        private int size;
+
+        private BSTNode<K, V> current;
+
+        private BSTNode<K, V> lastVisited;
+
+        PostOrderIterator(BSTNode<K, V> node, boolean entries) {
+            super(entries);
+            stack = newStack(node);
+            current = node;
+        }
+
+        @Override
+        BSTNode<K, V> step() {
+            while (current != null || size > 0) {
+                if (current != null) {
+                    stack[size++] = current;
+                    current = current.left;
+                } else {
+                    BSTNode<K, V> top = stack[size - 1];
+                    if (top.right != null && top.right != lastVisited)
+                        current = top.right;
+                    else {
+                        size--;
+                        lastVisited = top;
+                        return top;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Breadth first using a queue of the next nodes to visit.
+     */
+    private final class LevelOrderIterator<T> extends NodeIterator<T> {
+
+        private final ArrayDeque<BSTNode<K, V>> queue = new ArrayDeque<>();
+
+        LevelOrderIterator(BSTNode<K, V> node, boolean entries) {
+            super(entries);
+            if (node != null)
+                queue.add(node);
+        }
+
+        @Override
+        BSTNode<K, V> step() {
+            BSTNode<K, V> node = queue.poll();
+            if (node != null) {
+                if (node.left != null)
+                    queue.add(node.left);
+                if (node.right != null)
+                    queue.add(node.right);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * In-order spliterator over one node followed by a whole subtree.
+     * Splitting hands the left part of the subtree to a new spliterator and
+     * keeps the subtree root and its right part, so every split is O(1).
+     */
+    private final class NodeSpliterator<T> implements Spliterator<T> {
+
+        private final boolean entries;
+
+        private final int expectedModCount = modCount;
+
+        /* visited first, may be null */
+        private BSTNode<K, V> first;
+
+        /* visited in order after first */
+        private BSTNode<K, V> subtree;
+
+        /* set once traversal has started, after which no more splits */
+        private InOrderIterator<T> iterator;
+
+        private long remaining;
+
+        NodeSpliterator(BSTNode<K, V> first, BSTNode<K, V> subtree, boolean entries) {
+            this.first = first;
+            this.subtree = subtree;
+            this.entries = entries;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (iterator != null)
+                return null;
+            while (subtree != null) {
+                BSTNode<K, V> left = subtree.left;
+                BSTNode<K, V> prefixFirst = first;
+                first = subtree;
+                subtree = subtree.right;
+                if (prefixFirst != null || left != null)
+                    return new NodeSpliterator<>(prefixFirst, left, entries);
+            }
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (first != null) {
+                BSTNode<K, V> node = first;
+                first = null;
+                if (!node.removed) {
+                    action.accept(entries ? (T) new AbstractMap.SimpleImmutableEntry<>(node.key, node.value) : (T) node.key);
+                    return true;
+                }
+            }
+            if (iterator == null) {
+                remaining = estimateSize();
+                iterator = new InOrderIterator<>(subtree, entries);
+                subtree = null;
+            }
+            if (!iterator.hasNext())
+                return false;
+            remaining--;
+            action.accept(iterator.next());
+            return true;
+        }
+
+        @Override
+        public long estimateSize() {
+            if (iterator != null)
+                return Math.max(remaining, 0);
+            // a subtree of height h holds at most 2^h - 1 nodes
+            int h = Math.min(height(subtree), 62);
+            return (first == null ? 0 : 1) + (1L << h) - 1;
+        }
+
+        @Override
+        public int characteristics() {
+            return entries ? ORDERED | DISTINCT | NONNULL : ORDERED | DISTINCT | SORTED | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            if (entries)
+                throw new IllegalStateException();
+            @SuppressWarnings("unchecked")
+            Comparator<? super T> order = (Comparator<? super T>) comparator;
+            return order;
+        }
+    }
+
+    /**
+     * Returns the keys of the data structure in level-order traversal order.
+     * <p>
+     * The root is first in the list, then the keys found in the next level down,
+     * and so on.
+     * <p>
+     * If the SearchTree is empty, an empty list is returned.
+     *
+     * @return List of Keys in level-order
+     */
+    @Override
+    public List<K> getLevelOrderTraversal() {
+        return toList(keyIterator(Order.LEVEL_ORDER));
+    }
+
+    /**
+     * Walks the tree breadth first in one O(n) pass and calls action once per
+     * level with the keys on that level, left to right, and the level
+     * number (the root is level 1). Removed nodes are left out.
+     *
+     * @param action receives each level's keys and its number
+     */
+    public void forEachLevel(ObjIntConsumer<List<K>> action) {
+        breadthFirst(false, (nodes, level) -> {
+            List<K> keys = new ArrayList<>(nodes.size());
+            for (BSTNode<K, V> node : nodes)
+                if (!node.removed)
+                    keys.add(node.key);
+            action.accept(keys, level);
+        });
+    }
+
+    /**
+     * Single-pass breadth-first engine shared by forEachLevel and print().
+     * Each level is handed to action as a list of nodes. With gaps, a
+     * missing child shows up as a null on every level below its parent,
+     * which is where the recursive print() of the original tree put its X.
+     * The lists are reused, so action must not keep them.
+     *
+     * @param gaps   true to include missing children as nulls
+     * @param action receives each level and its number
+     */
+    private void breadthFirst(boolean gaps, ObjIntConsumer<List<BSTNode<K, V>>> action) {
+        List<BSTNode<K, V>> level = new ArrayList<>();
+        List<BSTNode<K, V>> next = new ArrayList<>();
+        if (root != null)
+            level.add(root);
+        for (int number = 1; !level.isEmpty(); number++) {
+            action.accept(level, number);
+            boolean hasNode = false;
+            for (BSTNode<K, V> node : level) {
+                if (node == null) {
+                    if (gaps)
+                        next.add(null);
+                    continue;
+                }
+                if (gaps || node.left != null)
+                    next.add(node.left);
+                if (gaps || node.right != null)
+                    next.add(node.right);
+                hasNode |= node.left != null || node.right != null;
+            }
+            List<BSTNode<K, V>> done = level;
+            level = next;
+            next = done;
+            next.clear();
+            if (!hasNode)
+                level.clear();
+        }
+    }
+
+    /**
+     * Add the key,value pair to the data structure and increase the number of keys.
+     * If key is null, throw IllegalNullKeyException;
+     * If key is already in data structure, throw DuplicateKeyException();
+     * Do not increase the num of keys in the structure, if key,value pair is not added.
+     */
+    @Override
+    public void insert(K key, V value) throws IllegalNullKeyException, DuplicateKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        checkWritable();
+        invalidate(key);
+        reorganizeIfDue();
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            root = insertHelper(root, key, value);
+        } finally {
+            if (metrics != null)
+                metrics.inserted(System.nanoTime() - start);
+        }
+        modCount++;
+    }
+
+    /**
+     * Inserts the key,value pair below node and rebalances every node on the
+     * way back up, so only the insertion path is touched.
+     *
+     * @param node  root of the subtree to insert into
+     * @param key   key to insert
+     * @param value value to insert
+     * @return the new root of the subtree
+     * @throws DuplicateKeyException if key is already in the subtree
+     */
+    private BSTNode<K, V> insertHelper(BSTNode<K, V> node, K key, V value) throws DuplicateKeyException {
+        if (node == null) {
+            numKeys++;
+            BSTNode<K, V> leaf = new BSTNode<K, V>(key, value);
+            leaf.rank = balancing == Balancing.TREAP ? ThreadLocalRandom.current().nextInt() : 1;
+            return leaf;
+        }
+        node = edit(node);
+        if (metrics != null)
+            metrics.compared();
+        int compare = compare(key, node.key);
+        if (compare > 0)
+            node.right = insertHelper(node.right, key, value);
+        else if (compare < 0)
+            node.left = insertHelper(node.left, key, value);
+        else if (node.removed) {
+            // revive the tombstone in place, the shape does not change
+            node.removed = false;
+            node.value = value;
+            numDeadNodes--;
+            numKeys++;
+        } else
+            throw new DuplicateKeyException();
+        return restore(node);
+    }
+
+    /**
+     * Inserts key,value, or replaces the value if key is already in the
+     * tree, like Map.put.
+     *
+     * @param key
+     * @param value
+     * @return the previous value for key, or null if there was none
+     * @throws IllegalNullKeyException if key is null
+     */
+    public V put(K key, V value) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        checkWritable();
+        invalidate(key);
+        BSTNode<K, V> node = search(key);
+        if (node == null) {
+            try {
+                root = insertHelper(root, key, value);
+            } catch (DuplicateKeyException e) {
+                throw new IllegalStateException(e); // search just found no live node for key
+            }
+            modCount++;
+            return null;
+        }
+        V old = node.value;
+        root = replaceValue(root, key, value);
+        return old;
+    }
+
+    /**
+     * Sets the value of the node holding key, which must be in the subtree.
+     * Only persistent mode copies the path; otherwise it is a plain descent.
+     *
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> replaceValue(BSTNode<K, V> node, K key, V value) {
+        node = edit(node);
+        int compare = compare(key, node.key);
+        if (compare < 0)
+            node.left = replaceValue(node.left, key, value);
+        else if (compare > 0)
+            node.right = replaceValue(node.right, key, value);
+        else
+            node.value = value;
+        return node;
+    }
+
+    /**
+     * Returns a live NavigableMap view of this tree, for code written
+     * against TreeMap. Reads and writes go straight to the tree, and its
+     * sub-map and descending views are views too. Iteration has the same
+     * fail-fast rules as the tree's own iterators.
+     *
+     * @return the map view
+     */
+    public NavigableMap<K, V> asNavigableMap() {
+        return new BALSTNavigableMap<>(this, null, false, null, false, false);
+    }
+
+    /**
+     * @param node
+     * @return the height stored in node, or 0 if node is null
+     */
+    private static int height(BSTNode<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * Recomputes the height and balance factor of node from its children.
+     *
+     * @param node
+     */
+    private void update(BSTNode<K, V> node) {
+        int leftHeight = height(node.left);
+        int rightHeight = height(node.right);
+        node.height = 1 + Math.max(leftHeight, rightHeight);
+        node.balanceFactor = leftHeight - rightHeight;
+        node.size = size(node.left) + size(node.right) + (node.removed ? 0 : 1);
+    }
+
+    /**
+     * @param node
+     * @return the number of live nodes in the subtree, 0 for null
+     */
+    private static int size(BSTNode<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Updates node and, if it is out of balance, fixes it with a single or
+     * double rotation. Children of node must already be up to date.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> rebalance(BSTNode<K, V> node) {
+        return rebalance(node, false);
+    }
+
+    /**
+     * @param node    a node safe to modify
+     * @param counted whether the rotations count towards numRotations()
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> rebalance(BSTNode<K, V> node, boolean counted) {
+        update(node);
+        if (node.balanceFactor > 1) {
+            boolean twice = node.left.balanceFactor < 0;
+            if (counted) {
+                numRotations += twice ? 2 : 1;
+                if (metrics != null)
+                    metrics.rotated(twice);
+            }
+            if (twice)
+                node.left = leftRotation(edit(node.left));
+            return rightRotation(node);
+        } else if (node.balanceFactor < -1) {
+            boolean twice = node.right.balanceFactor > 0;
+            if (counted) {
+                numRotations += twice ? 2 : 1;
+                if (metrics != null)
+                    metrics.rotated(twice);
+            }
+            if (twice)
+                node.right = rightRotation(edit(node.right));
+            return leftRotation(node);
+        }
+        return node;
+    }
+
+    /**
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> rightRotation(BSTNode<K, V> node) {
+        BSTNode<K, V> leftChild = edit(node.left);
+        node.left = leftChild.right;
+        leftChild.right = node;
+        update(node);
+        update(leftChild);
+        return leftChild;
+    }
+
+    /**
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> leftRotation(BSTNode<K, V> node) {
+        BSTNode<K, V> rightChild = edit(node.right);
+        node.right = rightChild.left;
+        rightChild.left = node;
+        update(node);
+        update(rightChild);
+        return rightChild;
+    }
+
+    /**
+     * Updates node and restores the rule of the balancing strategy at it,
+     * after an insert or remove changed one of its subtrees. Every strategy
+     * only looks at node, its children and grandchildren, which is what
+     * lets insertHelper and removeHelper fix the tree on the way back up.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> restore(BSTNode<K, V> node) {
+        switch (balancing) {
+        case RED_BLACK:
+            return restoreRedBlack(node);
+        case WAVL:
+            return restoreWavl(node);
+        case TREAP:
+            return restoreTreap(node);
+        default:
+            return rebalance(node, true);
+        }
+    }
+
+    /**
+     * @param node
+     * @return the red-black or WAVL rank of node, 0 if node is null
+     */
+    private static int rank(BSTNode<?, ?> node) {
+        return node == null ? 0 : node.rank;
+    }
+
+    private static <K, V> BSTNode<K, V> child(BSTNode<K, V> node, boolean left) {
+        return left ? node.left : node.right;
+    }
+
+    private static <K, V> void setChild(BSTNode<K, V> node, boolean left, BSTNode<K, V> child) {
+        if (left)
+            node.left = child;
+        else
+            node.right = child;
+    }
+
+    /**
+     * Rotates the left or the right child of node up into its place.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> rotateUp(BSTNode<K, V> node, boolean left) {
+        numRotations++;
+        if (metrics != null)
+            metrics.rotated(false);
+        return left ? rightRotation(node) : leftRotation(node);
+    }
+
+    /**
+     * Rotates the inner grandchild of node on the given side up into its
+     * place with a double rotation.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> rotateUpTwice(BSTNode<K, V> node, boolean left) {
+        numRotations += 2;
+        if (metrics != null)
+            metrics.rotated(true);
+        if (left) {
+            node.left = leftRotation(edit(node.left));
+            return rightRotation(node);
+        }
+        node.right = rightRotation(edit(node.right));
+        return leftRotation(node);
+    }
+
+    /**
+     * Red-black balancing in rank form: the rank is the black height, a
+     * child of the same rank as its parent is red, and every other child
+     * is one rank lower. An insert can leave a red child with a red child,
+     * a remove a child two ranks lower (a "double black"); both are fixed
+     * by the textbook cases, moving the problem up a level only on color
+     * flips.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> restoreRedBlack(BSTNode<K, V> node) {
+        update(node);
+        int rank = node.rank;
+        for (boolean left : new boolean[] {true, false}) {
+            BSTNode<K, V> red = child(node, left);
+            if (red == null || red.rank != rank)
+                continue;
+            boolean outer = rank(child(red, left)) == rank;
+            boolean inner = rank(child(red, !left)) == rank;
+            if (!outer && !inner)
+                continue;
+            if (rank(child(node, !left)) == rank) {
+                // red sibling: flip colors by promoting node
+                node.rank++;
+                return node;
+            }
+            return outer ? rotateUp(node, left) : rotateUpTwice(node, left);
+        }
+        for (boolean left : new boolean[] {true, false}) {
+            if (rank - rank(child(node, left)) != 2)
+                continue;
+            BSTNode<K, V> sibling = child(node, !left);
+            if (sibling.rank == rank) {
+                // red sibling: rotate it up, then node has a black sibling
+                BSTNode<K, V> top = rotateUp(node, !left);
+                setChild(top, left, restoreRedBlack(child(top, left)));
+                update(top);
+                return top;
+            }
+            BSTNode<K, V> outer = child(sibling, !left);
+            BSTNode<K, V> inner = child(sibling, left);
+            if (outer != null && outer.rank == sibling.rank) {
+                BSTNode<K, V> top = rotateUp(node, !left);
+                top.rank = rank;
+                node.rank = rank - 1;
+                return top;
+            }
+            if (inner != null && inner.rank == sibling.rank) {
+                BSTNode<K, V> top = rotateUpTwice(node, !left);
+                top.rank = rank;
+                node.rank = rank - 1;
+                return top;
+            }
+            // black sibling with black children: make it red by demoting node
+            node.rank--;
+            return node;
+        }
+        return node;
+    }
+
+    /**
+     * Weak AVL balancing: every rank difference is 1 or 2 and every leaf has
+     * rank 1. An insert can leave a child of rank difference 0, a remove a
+     * child of difference 3 or a leaf of rank 2; promotions and demotions
+     * move those up, and at most one single or double rotation ends them.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> restoreWavl(BSTNode<K, V> node) {
+        update(node);
+        int rank = node.rank;
+        for (boolean left : new boolean[] {true, false}) {
+            BSTNode<K, V> child = child(node, left);
+            if (child == null || child.rank != rank)
+                continue;
+            if (rank - rank(child(node, !left)) == 1) {
+                node.rank++;
+                return node;
+            }
+            if (child.rank - rank(child(child, !left)) == 2) {
+                node.rank--;
+                return rotateUp(node, left);
+            }
+            BSTNode<K, V> top = rotateUpTwice(node, left);
+            top.rank++;
+            child(top, left).rank--;
+            node.rank--;
+            return top;
+        }
+        for (boolean left : new boolean[] {true, false}) {
+            if (rank - rank(child(node, left)) != 3)
+                continue;
+            BSTNode<K, V> sibling = child(node, !left);
+            if (rank - sibling.rank == 2) {
+                node.rank--;
+                return node;
+            }
+            int outer = sibling.rank - rank(child(sibling, !left));
+            int inner = sibling.rank - rank(child(sibling, left));
+            if (outer == 2 && inner == 2) {
+                sibling = edit(sibling);
+                sibling.rank--;
+                setChild(node, !left, sibling);
+                node.rank--;
+                return node;
+            }
+            if (outer == 1) {
+                BSTNode<K, V> top = rotateUp(node, !left);
+                top.rank++;
+                node.rank -= node.left == null && node.right == null ? 2 : 1;
+                return top;
+            }
+            BSTNode<K, V> top = rotateUpTwice(node, !left);
+            top.rank += 2;
+            child(top, !left).rank--;
+            node.rank -= 2;
+            return top;
+        }
+        if (node.left == null && node.right == null && rank == 2)
+            node.rank = 1;
+        return node;
+    }
+
+    /**
+     * Treap balancing: the priority of a node is never lower than the
+     * priorities of its children. A child of higher priority is rotated
+     * above node, and node keeps sinking until the heap order holds, which
+     * after an insert takes one rotation per level the new node rises and
+     * after a remove moves the successor down to where its priority fits.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> restoreTreap(BSTNode<K, V> node) {
+        update(node);
+        BSTNode<K, V> left = node.left;
+        BSTNode<K, V> right = node.right;
+        boolean leftHigher = left != null && (right == null || left.rank >= right.rank);
+        BSTNode<K, V> higher = leftHigher ? left : right;
+        if (higher == null || higher.rank <= node.rank)
+            return node;
+        BSTNode<K, V> top = rotateUp(node, leftHigher);
+        setChild(top, !leftHigher, restoreTreap(node));
+        update(top);
+        return top;
+    }
+
+    /**
+     * If key is found, remove the key,value pair from the data structure and decrease num keys.
+     * If key is not found, do not decrease the number of keys in the data structure.
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public boolean remove(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        checkWritable();
+        invalidate(key);
+        reorganizeIfDue();
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            root = removeHelper(root, key);
+        } finally {
+            if (metrics != null)
+                metrics.removed(System.nanoTime() - start);
+        }
+        modCount++;
+        if (maxDeadRatio > 0 && numDeadNodes > maxDeadRatio * (numKeys + numDeadNodes))
+            compact();
+        return true;
+    }
+
+    /**
+     * Removes key from the subtree rooted at node and rebalances every node
+     * on the way back up. In lazy mode the node is only marked as removed.
+     *
+     * @param node root of the subtree to remove from
+     * @param key  key to remove
+     * @return the new root of the subtree
+     * @throws KeyNotFoundException if key is not in the subtree
+     */
+    private BSTNode<K, V> removeHelper(BSTNode<K, V> node, K key) throws KeyNotFoundException {
+        if (node == null)
+            throw new KeyNotFoundException();
+        node = edit(node);
+        if (metrics != null)
+            metrics.compared();
+        int compare = compare(key, node.key);
+        if (compare > 0)
+            node.right = removeHelper(node.right, key);
+        else if (compare < 0)
+            node.left = removeHelper(node.left, key);
+        else if (node.removed)
+            throw new KeyNotFoundException();
+        else if (maxDeadRatio > 0) {
+            node.removed = true;
+            node.value = null;
+            numDeadNodes++;
+            numKeys--;
+        } else {
+            numKeys--;
+            // node with only one child or no child
+            if (node.left == null)
+                return node.right;
+            if (node.right == null)
+                return node.left;
+            // node with two children: move the inorder successor into its place
+            BSTNode<K, V> successor = edit(inOrderSuccessor(node.right));
+            successor.right = removeSmallest(node.right);
+            successor.left = node.left;
+            // the successor takes over the rank of the position, but a treap node keeps its priority
+            if (balancing != Balancing.TREAP)
+                successor.rank = node.rank;
+            node = successor;
+        }
+        return restore(node);
+    }
+
+    /**
+     * Unlinks the smallest node of the subtree rooted at node.
+     *
+     * @param node
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> removeSmallest(BSTNode<K, V> node) {
+        if (node.left == null)
+            return node.right;
+        node = edit(node);
+        node.left = removeSmallest(node.left);
+        return restore(node);
+    }
+
+    /**
+     * Inserts a batch of entries in one structural pass: the batch is sorted
+     * and merged into the tree by a join-based union, which costs
+     * O(m log(n/m + 1)) for m entries instead of m separate inserts.
+     * <p>
+     * Entries whose key is already in the tree, or repeats an earlier entry
+     * of the batch, are not inserted and are returned instead of thrown.
+     * Trees not balanced as AVL insert the sorted batch one entry at a time.
+     *
+     * @param entries the batch, in any order
+     * @return the keys that were not inserted, in key order
+     * @throws IllegalNullKeyException if a key is null; nothing is inserted then
+     */
+    public List<K> insertAll(Collection<? extends Map.Entry<K, V>> entries) throws IllegalNullKeyException {
+        checkWritable();
+        List<Map.Entry<K, V>> sorted = new ArrayList<>(entries);
+        for (Map.Entry<K, V> entry : sorted)
+            if (entry.getKey() == null)
+                throw new IllegalNullKeyException();
+        sorted.sort((a, b) -> compare(a.getKey(), b.getKey()));
+        for (Map.Entry<K, V> entry : sorted)
+            invalidate(entry.getKey());
+        List<K> rejected = new ArrayList<>();
+        List<BSTNode<K, V>> batch = new ArrayList<>(sorted.size());
+        for (Map.Entry<K, V> entry : sorted) {
+            // the sort is stable, so the first entry for a key wins
+            if (!batch.isEmpty() && compare(entry.getKey(), batch.get(batch.size() - 1).key) == 0)
+                rejected.add(entry.getKey());
+            else
+                batch.add(new BSTNode<>(entry.getKey(), entry.getValue()));
+        }
+        if (balancing == Balancing.AVL)
+            root = insertBatch(root, batch, 0, batch.size() - 1, rejected);
+        else
+            for (BSTNode<K, V> node : batch) {
+                try {
+                    root = insertHelper(root, node.key, node.value);
+                } catch (DuplicateKeyException e) {
+                    rejected.add(node.key);
+                }
+            }
+        modCount++;
+        rejected.sort(comparator);
+        return rejected;
+    }
+
+    /**
+     * Removes a batch of keys in one structural pass using a join-based
+     * difference, which costs O(m log(n/m + 1)) for m keys. Removed nodes
+     * are unlinked even in lazy mode. Trees not balanced as AVL remove the
+     * sorted keys one at a time, exactly like remove.
+     *
+     * @param keys the batch, in any order
+     * @return the keys that were not in the tree, in key order
+     * @throws IllegalNullKeyException if a key is null; nothing is removed then
+     */
+    public List<K> removeAll(Collection<? extends K> keys) throws IllegalNullKeyException {
+        checkWritable();
+        List<K> sorted = new ArrayList<>(keys);
+        for (K key : sorted)
+            if (key == null)
+                throw new IllegalNullKeyException();
+        sorted.sort(comparator);
+        for (K key : sorted)
+            invalidate(key);
+        List<K> missing = new ArrayList<>();
+        if (balancing == Balancing.AVL)
+            root = removeBatch(root, sorted, 0, sorted.size() - 1, missing);
+        else {
+            for (K key : sorted) {
+                try {
+                    root = removeHelper(root, key);
+                } catch (KeyNotFoundException e) {
+                    missing.add(key);
+                }
+            }
+            if (maxDeadRatio > 0 && numDeadNodes > maxDeadRatio * (numKeys + numDeadNodes))
+                compact();
+        }
+        modCount++;
+        return missing;
+    }
+
+    /**
+     * Merges the new nodes batch[low..high], in key order, into the subtree
+     * rooted at node. Only subtrees that some batch key falls into are visited.
+     *
+     * @param rejected receives batch keys already in the subtree
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> insertBatch(BSTNode<K, V> node, List<BSTNode<K, V>> batch, int low, int high, List<K> rejected) {
+        if (low > high)
+            return node;
+        if (node == null) {
+            numKeys += high - low + 1;
+            return buildBalanced(batch, low, high);
+        }
+        int index = indexOf(batch, node.key, low, high);
+        int end = index < 0 ? -index - 1 : index;
+        BSTNode<K, V> left = insertBatch(node.left, batch, low, end - 1, rejected);
+        BSTNode<K, V> right = insertBatch(node.right, batch, index < 0 ? end : end + 1, high, rejected);
+        node = edit(node);
+        if (index >= 0) {
+            if (node.removed) {
+                node.removed = false;
+                node.value = batch.get(index).value;
+                numDeadNodes--;
+                numKeys++;
+            } else
+                rejected.add(node.key);
+        }
+        return join(left, node, right);
+    }
+
+    /**
+     * Unlinks the keys keys[low..high], in order, from the subtree rooted at node.
+     *
+     * @param missing receives keys that are not in the subtree
+     * @return the new root of the subtree
+     */
+    private BSTNode<K, V> removeBatch(BSTNode<K, V> node, List<K> keys, int low, int high, List<K> missing) {
+        if (low > high)
+            return node;
+        if (node == null) {
+            missing.addAll(keys.subList(low, high + 1));
+            return null;
+        }
+        int index = Collections.binarySearch(keys.subList(low, high + 1), node.key, comparator);
+        int end = low + (index < 0 ? -index - 1 : index);
+        while (index >= 0 && end > low && compare(keys.get(end - 1), node.key) == 0)
+            end--;
+        BSTNode<K, V> left = removeBatch(node.left, keys, low, end - 1, missing);
+        // equal keys in the batch all match node; the first removes it, the rest are missing
+        int next = end;
+        while (next <= high && compare(keys.get(next), node.key) == 0)
+            next++;
+        boolean found = next > end && !node.removed;
+        if (next > end)
+            missing.addAll(keys.subList(found ? end + 1 : end, next));
+        BSTNode<K, V> right = removeBatch(node.right, keys, next, high, missing);
+        if (!found)
+            return join(left, edit(node), right);
+        numKeys--;
+        return join(left, right);
+    }
+
+    /**
+     * Returns the index of key in nodes[low..high], or -(insertion point) - 1.
+     */
+    private int indexOf(List<BSTNode<K, V>> nodes, K key, int low, int high) {
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = compare(nodes.get(mid).key, key);
+            if (compare < 0)
+                low = mid + 1;
+            else if (compare > 0)
+                high = mid - 1;
             else
-                node.balanceFactor = node.left.height - node.right.height;
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Joins two AVL trees and a middle node whose key lies between them
+     * into one AVL tree, in O(|height(left) - height(right)|). The taller
+     * tree is descended along its inner spine to a subtree of matching
+     * height, and the path is rebalanced on the way back up.
+     *
+     * @param left   tree with keys smaller than middle
+     * @param middle a node safe to modify
+     * @param right  tree with keys larger than middle
+     * @return the root of the joined tree
+     */
+    private BSTNode<K, V> join(BSTNode<K, V> left, BSTNode<K, V> middle, BSTNode<K, V> right) {
+        if (height(left) > height(right) + 1) {
+            left = edit(left);
+            left.right = join(left.right, middle, right);
+            return rebalance(left);
+        }
+        if (height(right) > height(left) + 1) {
+            right = edit(right);
+            right.left = join(left, middle, right.left);
+            return rebalance(right);
+        }
+        middle.left = left;
+        middle.right = right;
+        update(middle);
+        return middle;
+    }
+
+    /**
+     * Joins two AVL trees, all of whose keys in left are smaller than those
+     * in right, by using the largest node of left as the middle.
+     */
+    private BSTNode<K, V> join(BSTNode<K, V> left, BSTNode<K, V> right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        BSTNode<K, V> largest = largest(left);
+        return join(removeLargest(left), edit(largest), right);
+    }
+
+    /**
+     * @param node
+     * @return the subtree without its largest node, rebalanced
+     */
+    private BSTNode<K, V> removeLargest(BSTNode<K, V> node) {
+        if (node.right == null)
+            return node.left;
+        node = edit(node);
+        node.right = removeLargest(node.right);
+        return rebalance(node);
+    }
+
+    /**
+     * Moves every key greater than or equal to key into a new tree and
+     * returns it, so this tree keeps the smaller keys. Both trees are cut
+     * out of this one in O(log n) without copying; in lazy mode the tree is
+     * compacted first if it holds dead nodes. Trees not balanced as AVL are
+     * rebuilt into the two halves in O(n) instead.
+     *
+     * @param key where to cut
+     * @return a new tree with the keys from key on; this tree keeps the rest
+     * @throws IllegalNullKeyException if key is null
+     */
+    public BALST<K, V> split(K key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        checkWritable();
+        if (numDeadNodes > 0)
+            compact();
+        invalidate(null);
+        BALST<K, V> right = new BALST<K, V>(balancing, comparator);
+        right.maxDeadRatio = maxDeadRatio;
+        // snapshots of this tree may share nodes with either half
+        right.persistent = persistent;
+        right.snapshotTaken = snapshotTaken;
+        if (balancing == Balancing.AVL) {
+            BSTNode<K, V>[] parts = split(root, key);
+            right.root = parts[1] == null ? parts[2] : join(null, edit(parts[1]), parts[2]);
+            root = parts[0];
+        } else {
+            List<BSTNode<K, V>> nodes = new ArrayList<>(numKeys);
+            collectLive(root, nodes);
+            int index = indexOf(nodes, key, 0, nodes.size() - 1);
+            int cut = index < 0 ? -index - 1 : index;
+            right.root = right.rebuild(nodes, cut, nodes.size() - 1);
+            root = rebuild(nodes, 0, cut - 1);
+        }
+        right.numKeys = size(right.root);
+        numKeys = size(root);
+        modCount++;
+        return right;
+    }
+
+    /**
+     * Concatenates left, the new entry key,value and right into one tree in
+     * O(|height(left) - height(right)| + 1). Every key of left must be
+     * smaller than key and every key of right larger. The nodes of left and
+     * right move into the new tree, so both are left empty. In lazy mode a
+     * tree holding dead nodes is compacted first. The new tree is balanced
+     * like left; unless both trees are AVL it is rebuilt in O(n).
+     *
+     * @param left  tree with keys smaller than key
+     * @param key   the key between the two trees
+     * @param value its value
+     * @param right tree with keys larger than key
+     * @return the joined tree
+     * @throws IllegalNullKeyException  if key is null
+     * @throws IllegalArgumentException if the keys are not in that order, left and right are the same tree,
+     *                                  or they have different comparators
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> join(BALST<K, V> left, K key, V value, BALST<K, V> right)
+            throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        if (left == right)
+            throw new IllegalArgumentException("cannot join a tree with itself");
+        if (!Objects.equals(left.comparator, right.comparator))
+            throw new IllegalArgumentException("cannot join trees ordered differently");
+        left.checkWritable();
+        right.checkWritable();
+        // a dead node could hold key itself
+        if (left.numDeadNodes > 0)
+            left.compact();
+        if (right.numDeadNodes > 0)
+            right.compact();
+        if (left.root != null && left.compare(largest(left.root).key, key) >= 0)
+            throw new IllegalArgumentException("left holds a key not smaller than " + key);
+        if (right.root != null && right.compare(right.inOrderSuccessor(right.root).key, key) <= 0)
+            throw new IllegalArgumentException("right holds a key not larger than " + key);
+        BALST<K, V> tree = new BALST<K, V>(left.balancing, left.comparator);
+        // nodes a persistent tree shares with its snapshots must never change
+        tree.persistent = left.persistent || right.persistent;
+        tree.snapshotTaken = left.snapshotTaken || right.snapshotTaken;
+        tree.maxDeadRatio = Math.max(left.maxDeadRatio, right.maxDeadRatio);
+        if (left.balancing == Balancing.AVL && right.balancing == Balancing.AVL)
+            tree.root = tree.join(left.root, new BSTNode<>(key, value), right.root);
+        else {
+            List<BSTNode<K, V>> nodes = new ArrayList<>(left.numKeys + 1 + right.numKeys);
+            left.collectLive(left.root, nodes);
+            nodes.add(new BSTNode<>(key, value));
+            right.collectLive(right.root, nodes);
+            tree.root = tree.rebuild(nodes, 0, nodes.size() - 1);
+        }
+        tree.numKeys = left.numKeys + 1 + right.numKeys;
+        left.clear();
+        right.clear();
+        return tree;
+    }
+
+    /**
+     * Unlinks every node, for trees whose nodes moved into another tree.
+     */
+    private void clear() {
+        invalidate(null);
+        root = null;
+        numKeys = 0;
+        numDeadNodes = 0;
+        modCount++;
+    }
+
+    private static <K, V> BSTNode<K, V> largest(BSTNode<K, V> node) {
+        while (node.right != null)
+            node = node.right;
+        return node;
+    }
+
+    /**
+     * Splits the subtree rooted at node around key in O(log n) by joining
+     * the pieces left and right of the search path.
+     *
+     * @param node
+     * @param key
+     * @return the subtree of smaller keys, the node holding key (or null),
+     *         and the subtree of larger keys
+     */
+    private BSTNode<K, V>[] split(BSTNode<K, V> node, K key) {
+        if (node == null)
+            return parts(null, null, null);
+        int compare = compare(key, node.key);
+        if (compare == 0)
+            return parts(node.left, node, node.right);
+        if (compare < 0) {
+            BSTNode<K, V>[] parts = split(node.left, key);
+            parts[2] = join(parts[2], edit(node), node.right);
+            return parts;
+        }
+        BSTNode<K, V>[] parts = split(node.right, key);
+        parts[0] = join(node.left, edit(node), parts[0]);
+        return parts;
+    }
+
+    /**
+     * @return a new array holding nodes
+     */
+    @SafeVarargs
+    private static <K, V> BSTNode<K, V>[] parts(BSTNode<K, V>... nodes) {
+        BSTNode<K, V>[] parts = newNodes(nodes.length);
+        for (int i = 0; i < nodes.length; i++)
+            parts[i] = nodes[i];
+        return parts;
+    }
+
+    /**
+     * The operations SetTask runs. COPY is the deep copy combine() makes of
+     * an input that is not persistent.
+     */
+    enum SetOperation { UNION, INTERSECTION, DIFFERENCE, COPY }
+
+    /* subtree pairs whose heights add up to no more than this run without forking */
+    private static final int SEQUENTIAL_HEIGHT = 16;
+
+    /**
+     * Returns a new tree holding every key of a and b, with the value from
+     * a for keys in both. See combine() for the cost.
+     *
+     * @param a
+     * @param b
+     * @return a new tree; a and b are not changed
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> union(BALST<K, V> a, BALST<K, V> b) {
+        return combine(SetOperation.UNION, a, b, false, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Like union(), but the nodes of a and b move into the new tree, so both
+     * are left empty. Inputs that are not persistent are split and joined in
+     * place instead of being copied first. See combine() for the cost.
+     *
+     * @param a
+     * @param b
+     * @return a new tree; a and b are left empty
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> unionConsuming(BALST<K, V> a, BALST<K, V> b) {
+        return combine(SetOperation.UNION, a, b, true, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a new tree holding the keys that are in both a and b, with
+     * their values from a. See combine() for the cost.
+     *
+     * @param a
+     * @param b
+     * @return a new tree; a and b are not changed
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> intersection(BALST<K, V> a, BALST<K, V> b) {
+        return combine(SetOperation.INTERSECTION, a, b, false, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Like intersection(), but a and b are split in place and left empty.
+     * See combine() for the cost.
+     *
+     * @param a
+     * @param b
+     * @return a new tree; a and b are left empty
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> intersectionConsuming(BALST<K, V> a, BALST<K, V> b) {
+        return combine(SetOperation.INTERSECTION, a, b, true, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a new tree holding the keys of a that are not in b. See
+     * combine() for the cost.
+     *
+     * @param a
+     * @param b
+     * @return a new tree; a and b are not changed
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> difference(BALST<K, V> a, BALST<K, V> b) {
+        return combine(SetOperation.DIFFERENCE, a, b, false, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Like difference(), but the nodes of a move into the new tree and both
+     * a and b are left empty. See combine() for the cost.
+     *
+     * @param a
+     * @param b
+     * @return a new tree; a and b are left empty
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> differenceConsuming(BALST<K, V> a, BALST<K, V> b) {
+        return combine(SetOperation.DIFFERENCE, a, b, true, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runs a join-based set operation on pool. The recursion splits one
+     * tree at the root key of the other and handles the two halves as
+     * separate fork-join tasks, for O(m log(n/m + 1)) work and O(log^2 n)
+     * span with m the size of the smaller tree.
+     * <p>
+     * Split and join copy the nodes they change, so the inputs are never
+     * modified. Persistent inputs and snapshots are used as they are, and
+     * the result shares their untouched subtrees, which makes the result a
+     * persistent tree too. An input that is not persistent is first copied
+     * in parallel, which adds O(n) work, unless consume is set: then the
+     * operation only copies nodes of persistent inputs, changes the others
+     * in place and empties both inputs, as join() does. The result is an AVL
+     * tree; an input with another balancing strategy is first copied into a
+     * perfectly balanced one, also in O(n). Both trees must have the same
+     * comparator.
+     *
+     * @param operation
+     * @param a
+     * @param b
+     * @param consume whether a and b may be taken apart and left empty
+     * @param pool
+     * @return the new tree
+     * @throws IllegalArgumentException if consume is set and a and b are the same tree
+     */
+    static <K extends Comparable<K>, V> BALST<K, V> combine(SetOperation operation, BALST<K, V> a, BALST<K, V> b,
+            boolean consume, ForkJoinPool pool) {
+        if (!Objects.equals(a.comparator, b.comparator))
+            throw new IllegalArgumentException("cannot combine trees ordered differently");
+        if (consume) {
+            if (a == b)
+                throw new IllegalArgumentException("cannot consume a tree twice");
+            a.checkWritable();
+            b.checkWritable();
+        }
+        BALST<K, V> result = new BALST<K, V>(Balancing.AVL, a.comparator);
+        // consumed inputs that are not persistent may change in place
+        result.persistent = !consume || a.persistent || b.persistent;
+        LongAdder live = new LongAdder();
+        LongAdder dead = new LongAdder();
+        BSTNode<K, V> first = a.balancing != Balancing.AVL ? a.copyBalanced()
+                : a.persistent || consume ? a.root : pool.invoke(new SetTask<>(result, SetOperation.COPY, a.root, null, live, dead));
+        BSTNode<K, V> second = b.balancing != Balancing.AVL ? b.copyBalanced()
+                : b.persistent || consume ? b.root : pool.invoke(new SetTask<>(result, SetOperation.COPY, b.root, null, live, dead));
+        result.root = pool.invoke(new SetTask<>(result, operation, first, second, live, dead));
+        boolean shared = false;
+        switch (operation) {
+        case UNION:
+            live.add(a.numKeys + b.numKeys);
+            dead.add(a.numDeadNodes + b.numDeadNodes);
+            shared = a.persistent || b.persistent;
+            break;
+        case DIFFERENCE:
+            live.add(a.numKeys);
+            dead.add(a.numDeadNodes);
+            shared = a.persistent;
+            break;
+        default:
+            break;
+        }
+        result.numKeys = live.intValue();
+        result.numDeadNodes = dead.intValue();
+        result.maxDeadRatio = Math.max(a.maxDeadRatio, b.maxDeadRatio);
+        // a result sharing nodes with a persistent input must never change them
+        result.persistent = shared;
+        result.snapshotTaken = shared;
+        if (consume) {
+            a.clear();
+            b.clear();
+        }
+        return result;
+    }
+
+    /**
+     * One step of a set operation on the subtrees a and b. Nodes taken out
+     * of the inputs are counted in live and dead as negative deltas, and
+     * nodes created for the result as positive ones.
+     */
+    @SuppressWarnings("serial")
+    private static final class SetTask<K extends Comparable<K>, V> extends RecursiveTask<BSTNode<K, V>> {
+
+        private final BALST<K, V> tree;
+        private final SetOperation operation;
+        private final BSTNode<K, V> a;
+        private final BSTNode<K, V> b;
+        private final LongAdder live;
+        private final LongAdder dead;
+
+        SetTask(BALST<K, V> tree, SetOperation operation, BSTNode<K, V> a, BSTNode<K, V> b, LongAdder live, LongAdder dead) {
+            this.tree = tree;
+            this.operation = operation;
+            this.a = a;
+            this.b = b;
+            this.live = live;
+            this.dead = dead;
         }
+
+        @Override
+        protected BSTNode<K, V> compute() {
+            switch (operation) {
+            case UNION:
+                return union();
+            case INTERSECTION:
+                return intersection();
+            case DIFFERENCE:
+                return difference();
+            default:
+                return copy();
+            }
+        }
+
+        private BSTNode<K, V> union() {
+            if (a == null)
+                return b;
+            if (b == null)
+                return a;
+            BSTNode<K, V>[] parts = tree.split(b, a.key);
+            BSTNode<K, V>[] halves = both(a.left, parts[0], a.right, parts[2]);
+            BSTNode<K, V> match = parts[1];
+            taken(a);
+            if (match != null)
+                taken(match);
+            BSTNode<K, V> source = !a.removed ? a : match != null && !match.removed ? match : null;
+            if (source == null)
+                return tree.join(halves[0], halves[1]);
+            live.increment();
+            return tree.join(halves[0], new BSTNode<>(source.key, source.value), halves[1]);
+        }
+
+        private BSTNode<K, V> intersection() {
+            if (a == null || b == null)
+                return null;
+            BSTNode<K, V>[] parts = tree.split(a, b.key);
+            BSTNode<K, V>[] halves = both(parts[0], b.left, parts[2], b.right);
+            BSTNode<K, V> match = parts[1];
+            if (b.removed || match == null || match.removed)
+                return tree.join(halves[0], halves[1]);
+            live.increment();
+            return tree.join(halves[0], new BSTNode<>(match.key, match.value), halves[1]);
+        }
+
+        private BSTNode<K, V> difference() {
+            if (a == null)
+                return null;
+            if (b == null)
+                return a;
+            BSTNode<K, V>[] parts = tree.split(a, b.key);
+            BSTNode<K, V>[] halves = both(parts[0], b.left, parts[2], b.right);
+            BSTNode<K, V> match = parts[1];
+            if (match != null && b.removed)
+                return tree.join(halves[0], tree.edit(match), halves[1]);
+            if (match != null)
+                taken(match);
+            return tree.join(halves[0], halves[1]);
+        }
+
+        private BSTNode<K, V> copy() {
+            if (a == null)
+                return null;
+            BSTNode<K, V> node = new BSTNode<>(a);
+            BSTNode<K, V>[] halves = both(a.left, null, a.right, null);
+            node.left = halves[0];
+            node.right = halves[1];
+            return node;
+        }
+
+        /**
+         * Runs the operation on (leftA, leftB) and (rightA, rightB), forking
+         * the first pair if this step is large enough to be worth it.
+         */
+        private BSTNode<K, V>[] both(BSTNode<K, V> leftA, BSTNode<K, V> leftB, BSTNode<K, V> rightA, BSTNode<K, V> rightB) {
+            SetTask<K, V> left = new SetTask<>(tree, operation, leftA, leftB, live, dead);
+            SetTask<K, V> right = new SetTask<>(tree, operation, rightA, rightB, live, dead);
+            if (height(a) + height(b) <= SEQUENTIAL_HEIGHT)
+                return parts(left.compute(), right.compute());
+            left.fork();
+            BSTNode<K, V> rightResult = right.compute();
+            return parts(left.join(), rightResult);
+        }
+
+        /**
+         * Counts node as taken out of an input.
+         */
+        private void taken(BSTNode<K, V> node) {
+            (node.removed ? dead : live).decrement();
+        }
+    }
+
+    /**
+     * Builds a perfectly balanced tree from entries in ascending key order
+     * in O(n), without the per-key search and rebalancing of insert.
+     *
+     * @param sorted entries in strictly ascending key order
+     * @return the new tree
+     * @throws IllegalNullKeyException if a key is null
+     * @throws DuplicateKeyException   if a key repeats the one before it
+     * @throws IllegalArgumentException if the keys are not in ascending order
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> bulkLoad(Iterator<? extends Map.Entry<K, V>> sorted)
+            throws IllegalNullKeyException, DuplicateKeyException {
+        List<BSTNode<K, V>> nodes = new ArrayList<>();
+        while (sorted.hasNext()) {
+            Map.Entry<K, V> entry = sorted.next();
+            addInOrder(nodes, entry.getKey(), entry.getValue());
+        }
+        return fromSortedNodes(nodes);
+    }
+
+    /**
+     * Builds a perfectly balanced tree from parallel arrays of keys in
+     * ascending order and their values in O(n).
+     *
+     * @param keys   keys in strictly ascending order
+     * @param values values[i] is the value of keys[i]
+     * @return the new tree
+     * @throws IllegalNullKeyException if a key is null
+     * @throws DuplicateKeyException   if a key repeats the one before it
+     * @throws IllegalArgumentException if the keys are not in ascending order
+     *                                  or the arrays differ in length
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> bulkLoad(K[] keys, V[] values)
+            throws IllegalNullKeyException, DuplicateKeyException {
+        if (keys.length != values.length)
+            throw new IllegalArgumentException("keys and values differ in length");
+        List<BSTNode<K, V>> nodes = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++)
+            addInOrder(nodes, keys[i], values[i]);
+        return fromSortedNodes(nodes);
+    }
+
+    /**
+     * Builds a perfectly balanced tree from entries in any order. The
+     * entries are sorted in parallel first, so this costs O(n log n).
+     *
+     * @param entries entries with distinct keys
+     * @return the new tree
+     * @throws IllegalNullKeyException if a key is null
+     * @throws DuplicateKeyException   if two entries have the same key
+     */
+    public static <K extends Comparable<K>, V> BALST<K, V> bulkLoadUnsorted(Collection<? extends Map.Entry<K, V>> entries)
+            throws IllegalNullKeyException, DuplicateKeyException {
+        for (Map.Entry<K, V> entry : entries)
+            if (entry.getKey() == null)
+                throw new IllegalNullKeyException();
+        List<Map.Entry<K, V>> sorted = entries.parallelStream()
+                .sorted(Map.Entry.comparingByKey())
+                .collect(Collectors.toList());
+        return bulkLoad(sorted.iterator());
+    }
+
+    /**
+     * Appends a new node for key to nodes, which holds the keys so far in order.
+     */
+    private static <K extends Comparable<K>, V> void addInOrder(List<BSTNode<K, V>> nodes, K key, V value)
+            throws IllegalNullKeyException, DuplicateKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        if (!nodes.isEmpty()) {
+            int compare = key.compareTo(nodes.get(nodes.size() - 1).key);
+            if (compare == 0)
+                throw new DuplicateKeyException();
+            if (compare < 0)
+                throw new IllegalArgumentException("keys are not in ascending order at " + key);
+        }
+        nodes.add(new BSTNode<>(key, value));
+    }
+
+    private static <K extends Comparable<K>, V> BALST<K, V> fromSortedNodes(List<BSTNode<K, V>> nodes) {
+        BALST<K, V> tree = new BALST<>();
+        tree.root = tree.buildBalanced(nodes, 0, nodes.size() - 1);
+        tree.numKeys = nodes.size();
+        return tree;
+    }
+
+    /**
+     * Drops every node marked as removed and rebuilds the remaining nodes
+     * into a perfectly balanced tree in O(n).
+     */
+    public void compact() {
+        checkWritable();
+        List<BSTNode<K, V>> live = new ArrayList<>(numKeys);
+        collectLive(root, live);
+        root = rebuild(live, 0, live.size() - 1);
+        modCount++;
+        if (numDeadNodes > 0)
+            numCompactions++;
+        numDeadNodes = 0;
+    }
+
+    /**
+     * @param node
+     * @param list receives the live nodes of the subtree in order
+     */
+    private void collectLive(BSTNode<K, V> node, List<BSTNode<K, V>> list) {
+        collect(node, list, false);
+    }
+
+    /**
+     * @param node
+     * @param list receives the nodes of the subtree in order
+     * @param dead whether to include nodes marked as removed
+     */
+    private void collect(BSTNode<K, V> node, List<BSTNode<K, V>> list, boolean dead) {
+        if (node == null)
+            return;
+        collect(node.left, list, dead);
+        if (dead || !node.removed)
+            list.add(node);
+        collect(node.right, list, dead);
+    }
+
+    /**
+     * Copies every node, dead ones included, into a new perfectly balanced
+     * AVL subtree, so the join-based set operations can run on trees with
+     * another balancing strategy. This tree is not changed.
+     *
+     * @return the root of the copy
+     */
+    private BSTNode<K, V> copyBalanced() {
+        List<BSTNode<K, V>> nodes = new ArrayList<>(numKeys + numDeadNodes);
+        collect(root, nodes, true);
+        BALST<K, V> copy = new BALST<>();
+        copy.persistent = true;
+        return copy.buildBalanced(nodes, 0, nodes.size() - 1);
+    }
+
+    /**
+     * Links nodes[low..high], which must be in key order, into a balanced subtree.
+     *
+     * @param nodes
+     * @param low
+     * @param high
+     * @return the root of the subtree
+     */
+    private BSTNode<K, V> buildBalanced(List<BSTNode<K, V>> nodes, int low, int high) {
+        if (low > high)
+            return null;
+        int mid = (low + high) >>> 1;
+        BSTNode<K, V> node = edit(nodes.get(mid));
+        node.left = buildBalanced(nodes, low, mid - 1);
+        node.right = buildBalanced(nodes, mid + 1, high);
+        update(node);
+        return node;
     }
 
-    private void balanceTree() throws IllegalNullKeyException {
-        List<K> list = getLevelOrderTraversal();
-        for (int i = 0; i < list.size(); i++) {
-            BSTNode<K, V> node = search(root, list.get(i));
-            if (node != null && node.balanceFactor < -1) {
-                if (node.right.balanceFactor > 0) {
-                    node.right = rightRotation(node.right);
-                }
-                if (node == root)
-                    node = leftRotation(node);
-                else {
-                    List<BSTNode<K, V>> listParent = new ArrayList<>();
-                    BSTNode<K, V> parent = parentSearch(root, node.key, listParent);
-                    parent.right = leftRotation(node);
-                }
-                if (i == 0)
-                    root = node;
-            } else if (node != null && node.balanceFactor > 1) {
-                if (node.left.balanceFactor < 0) {
-                    node.left = leftRotation(node.left);
-                    print();
-                }
-                if(node == root)
-                    node = rightRotation(node);
-                else {
-                    List<BSTNode<K, V>> listParent = new ArrayList<>();
-                    BSTNode<K, V> parent = parentSearch(root, node.key, listParent);
-                    parent.left = rightRotation(node);
-                }
-                print();
-                if (i == 0)
-                    root = node;
-            }
-        }
+    /**
+     * Links nodes[low..high], which must be in key order, into a perfectly
+     * balanced subtree and gives every node the rank or priority the
+     * balancing strategy needs.
+     *
+     * @return the root of the subtree
+     */
+    private BSTNode<K, V> rebuild(List<BSTNode<K, V>> nodes, int low, int high) {
+        BSTNode<K, V> node = buildBalanced(nodes, low, high);
+        assignRanks(node);
+        return node;
     }
 
     /**
-     * If key is found, remove the key,value pair from the data structure and decrease num keys.
-     * If key is not found, do not decrease the number of keys in the data structure.
-     * If key is null, throw IllegalNullKeyException
-     * If key is not found, throw KeyNotFoundException().
+     * Gives every node of an AVL subtree without dead nodes, as built by
+     * buildBalanced or buildWeighted, the rank or priority the balancing
+     * strategy needs.
+     *
+     * @param node root of the subtree, safe to modify with all its nodes
      */
-    @Override
-    public boolean remove(K key) throws IllegalNullKeyException, KeyNotFoundException {
-        if (key == null)
-            throw new IllegalNullKeyException();
-        else if (!contains(key))
-            throw new KeyNotFoundException();
-        else if (root == null)
-            return false;
-        else {
-            removeHelper(search(root, key), key);
-            if (contains(key))
-                return false;
-            else {
-                numKeys--;
-                print();
-                updateHeightAndBalanceFactor();
-                balanceTree();
-                return true;
+    private void assignRanks(BSTNode<K, V> node) {
+        switch (balancing) {
+        case RED_BLACK:
+        case WAVL:
+            rankByHeight(node);
+            break;
+        case TREAP:
+            // random priorities, the highest nearest the root
+            int[] priorities = ThreadLocalRandom.current().ints(size(node)).sorted().toArray();
+            int next = priorities.length;
+            ArrayDeque<BSTNode<K, V>> queue = new ArrayDeque<>();
+            if (node != null)
+                queue.add(node);
+            while (!queue.isEmpty()) {
+                BSTNode<K, V> first = queue.poll();
+                first.rank = priorities[--next];
+                if (first.left != null)
+                    queue.add(first.left);
+                if (first.right != null)
+                    queue.add(first.right);
             }
+            break;
+        default:
+            break;
         }
     }
 
     /**
+     * Ranks an AVL subtree. For WAVL the rank is the height. For red-black
+     * it is (height + 1) / 2, which makes a node red exactly when its height
+     * is odd and its parent's is even; the heights of AVL siblings differ by
+     * at most 1, so no red node gets a red child and every path has the same
+     * number of black nodes.
+     *
      * @param node
-     * @param key
-     * @return
      */
-    private BSTNode<K, V> removeHelper(BSTNode<K, V> node, K key) {
-        // node with only one child or no child
-        if (node.left == null || node.right == null) {
-            if (node.left == null && node.right == null) {
-                node.key = null;
-                node.value = null;
-                node.removed = true;
-            } else if (node.left == null) {
-                node.removed = true;
-                node = node.right;
-            } else if (node.right == null) {
-                node.removed = true;
-                node = node.left;
+    private void rankByHeight(BSTNode<K, V> node) {
+        if (node == null)
+            return;
+        node.rank = balancing == Balancing.WAVL ? node.height : (node.height + 1) / 2;
+        rankByHeight(node.left);
+        rankByHeight(node.right);
+    }
+
+    /**
+     * Relinks the live nodes into an AVL tree shaped by the hits counted in
+     * adaptive mode, in O(n log n), and halves every count so the shape
+     * follows the keys that are hot now rather than those that were hot
+     * once. Like compact(), it drops the nodes lazy deletion left behind.
+     * <p>
+     * Each subtree is rooted at the node closest to the weighted median of
+     * its keys (every key weighs its hits plus one, so keys nobody looks up
+     * are split evenly) among the nodes that still leave both sides sizes an
+     * AVL tree of the planned heights can hold. The whole tree is planned
+     * one level taller than a perfectly balanced one, which leaves room to
+     * lift hot keys without giving up the AVL height bound.
+     */
+    public void reorganize() {
+        checkWritable();
+        List<BSTNode<K, V>> nodes = new ArrayList<>(numKeys);
+        collectLive(root, nodes);
+        long[] weights = new long[nodes.size() + 1];
+        for (int i = 0; i < nodes.size(); i++)
+            weights[i + 1] = weights[i] + hitsOf(nodes.get(i).key) + 1;
+        int height = 32 - Integer.numberOfLeadingZeros(nodes.size());
+        if (AVL_MIN_SIZE[height + 1] <= nodes.size())
+            height++;
+        root = buildWeighted(nodes, weights, 0, nodes.size() - 1, height);
+        assignRanks(root);
+        modCount++;
+        if (numDeadNodes > 0)
+            numCompactions++;
+        numDeadNodes = 0;
+        numReorganizations++;
+        lookupsSinceReorganization = 0;
+        if (hits != null) {
+            // halved counts of live keys only, which also drops the keys removed since
+            IdentityHashMap<K, int[]> halved = new IdentityHashMap<>();
+            for (BSTNode<K, V> node : nodes) {
+                int[] count = hits.get(node.key);
+                if (count != null && (count[0] >>>= 1) > 0)
+                    halved.put(node.key, count);
             }
-        } else {
-            // node with two children: Get the inorder successor (smallest
-            // in the right subtree)
-            node.key = inOrderSuccessor(node.right).key;
+            hits = halved;
+        }
+    }
+
+    /**
+     * @return the lookups of key counted since the last reorganization
+     */
+    private int hitsOf(K key) {
+        int[] count = hits == null ? null : hits.get(key);
+        return count == null ? 0 : count[0];
+    }
+
+    private void reorganizeIfDue() {
+        if (adaptivePeriod > 0 && lookupsSinceReorganization >= adaptivePeriod)
+            reorganize();
+    }
 
-            // Delete the inorder successor
-            node.right = removeHelper(node.right, node.key);
+    /**
+     * Links nodes[low..high] into an AVL subtree of exactly the given
+     * height, which must be able to hold them, putting the weighted median
+     * as close to the root as the height allows.
+     *
+     * @param weights prefix sums, weights[i + 1] - weights[i] is the weight of nodes[i]
+     * @return the root of the subtree
+     */
+    private BSTNode<K, V> buildWeighted(List<BSTNode<K, V>> nodes, long[] weights, int low, int high, int height) {
+        if (low > high)
+            return null;
+        int size = high - low + 1;
+        int index = Arrays.binarySearch(weights, low + 1, high + 2, weights[low] + (weights[high + 1] - weights[low]) / 2);
+        int want = (index < 0 ? -index - 1 : index) - 1 - low;
+        // the left subtree gets want nodes if some pair of child heights allows it, else the nearest count that fits
+        int left = -1;
+        int leftHeight = 0;
+        int rightHeight = 0;
+        for (int shorter = 0; shorter < 3; shorter++) {
+            int heightLeft = height - (shorter == 1 ? 2 : 1);
+            int heightRight = height - (shorter == 2 ? 2 : 1);
+            if (heightLeft < 0 || heightRight < 0)
+                continue;
+            long min = Math.max(AVL_MIN_SIZE[heightLeft], size - 1 - maxSize(heightRight));
+            long max = Math.min(maxSize(heightLeft), size - 1 - AVL_MIN_SIZE[heightRight]);
+            if (min > max)
+                continue;
+            int fit = (int) Math.max(min, Math.min(max, want));
+            if (left < 0 || Math.abs(fit - want) < Math.abs(left - want)) {
+                left = fit;
+                leftHeight = heightLeft;
+                rightHeight = heightRight;
+            }
         }
-        return null;
+        BSTNode<K, V> node = edit(nodes.get(low + left));
+        node.left = buildWeighted(nodes, weights, low, low + left - 1, leftHeight);
+        node.right = buildWeighted(nodes, weights, low + left + 1, high, rightHeight);
+        update(node);
+        return node;
+    }
+
+    /**
+     * @return the most nodes an AVL tree of height h can hold, 2^h - 1
+     */
+    private static long maxSize(int h) {
+        return h >= 62 ? Long.MAX_VALUE / 2 : (1L << h) - 1;
+    }
+
+    /**
+     * Returns the number of nodes marked as removed that are still linked
+     * into the tree. Always 0 unless lazy deletion is on.
+     */
+    public int numDeadNodes() {
+        return numDeadNodes;
+    }
+
+    /**
+     * Returns the fraction of linked nodes that are dead, 0 for an empty tree.
+     */
+    public double deadNodeRatio() {
+        int total = numKeys + numDeadNodes;
+        return total == 0 ? 0 : (double) numDeadNodes / total;
+    }
+
+    /**
+     * Returns how many times the tree has been compacted.
+     */
+    public int numCompactions() {
+        return numCompactions;
     }
 
     /**
@@ -464,31 +2716,6 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
         return runner;
     }
 
-    /**
-     * @param node
-     * @param key
-     * @param list
-     * @return
-     * @throws IllegalNullKeyException
-     */
-    private BSTNode<K, V> parentSearch(BSTNode<K, V> node, K key, List<BSTNode<K, V>> list) throws IllegalNullKeyException {
-        if (key == null)
-            throw new IllegalNullKeyException();
-        else if (node == null)
-            return null;
-        else if (node.key.equals(key))
-            return list.get(list.size() - 1);
-        else if (node.key.compareTo(key) > 0) {
-            list.add(node);
-            return parentSearch(node.left, key, list);
-        } else if (node.key.compareTo(key) < 0) {
-            list.add(node);
-            return parentSearch(node.right, key, list);
-        } else
-            return null;
-    }
-
-
     /**
      * Returns the value associated with the specified key
      * <p>
@@ -500,11 +2727,53 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
     public V get(K key) throws IllegalNullKeyException, KeyNotFoundException {
         if (key == null)
             throw new IllegalNullKeyException();
-        BSTNode<K, V> node = search(root, key);
-        if (node == null)
-            throw new KeyNotFoundException();
-        else
-            return node.value;
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            Object value = lookup(key);
+            if (value == BALSTLookupCache.ABSENT)
+                throw new KeyNotFoundException();
+            @SuppressWarnings("unchecked")
+            V found = (V) value;
+            return found;
+        } finally {
+            if (metrics != null)
+                metrics.got(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the value associated with the specified key, or defaultValue
+     * if the key is not found. A miss costs only the descent.
+     *
+     * @param key          A key to search for
+     * @param defaultValue value to return if key is not found
+     * @return the value for key, or defaultValue
+     * @throws IllegalNullKeyException if key is null
+     */
+    public V getOrDefault(K key, V defaultValue) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        Object value = lookup(key);
+        @SuppressWarnings("unchecked")
+        V found = value == BALSTLookupCache.ABSENT ? defaultValue : (V) value;
+        return found;
+    }
+
+    /**
+     * Returns the value associated with the specified key, or an empty
+     * Optional if the key is not found. A null value is also reported as empty.
+     *
+     * @param key A key to search for
+     * @return the value for key, if any
+     * @throws IllegalNullKeyException if key is null
+     */
+    public Optional<V> find(K key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        Object value = lookup(key);
+        @SuppressWarnings("unchecked")
+        V found = value == BALSTLookupCache.ABSENT ? null : (V) value;
+        return Optional.ofNullable(found);
     }
 
     /**
@@ -516,40 +2785,292 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
     public boolean contains(K key) throws IllegalNullKeyException {
         if (key == null)
             throw new IllegalNullKeyException();
-        else {
-            try {
-                BSTNode<K, V> node = search(root, key);
-                if (node == null)
-                    throw new KeyNotFoundException();
-                else
-                    return true;
-            } catch (KeyNotFoundException e) {
-                return false;
+        return lookup(key) != BALSTLookupCache.ABSENT;
+    }
+
+    /**
+     * Answers a lookup from the cache if it can, and otherwise searches the
+     * tree and caches the result.
+     *
+     * @param key non-null key to look up
+     * @return the value of key, or BALSTLookupCache.ABSENT if key is not in the tree
+     */
+    private Object lookup(K key) {
+        if (cache != null) {
+            int slot = cache.find(key);
+            if (slot >= 0) {
+                Object cached = cache.value(slot);
+                // the hit still counts in adaptive mode, or cached keys would look cold
+                if (adaptivePeriod > 0)
+                    countLookup(cached == BALSTLookupCache.ABSENT ? null : cache.key(slot));
+                return cached;
             }
         }
+        BSTNode<K, V> node = search(key);
+        if (cache != null) {
+            if (node == null)
+                cache.put(key, BALSTLookupCache.ABSENT);
+            else
+                cache.put(node.key, node.value);
+        }
+        return node == null ? BALSTLookupCache.ABSENT : node.value;
     }
 
     /**
-     * @param node
+     * Iterative lookup with a single key comparison per level.
+     *
+     * @param key non-null key to search for
+     * @return the live node holding key, or null if there is none
+     */
+    private BSTNode<K, V> search(K key) {
+        BSTNode<K, V> node = root;
+        int depth = 0;
+        while (node != null) {
+            depth++;
+            int compare = compare(key, node.key);
+            if (compare < 0)
+                node = node.left;
+            else if (compare > 0)
+                node = node.right;
+            else
+                break;
+        }
+        if (metrics != null)
+            metrics.searched(depth);
+        if (node != null && node.removed)
+            node = null;
+        if (adaptivePeriod > 0)
+            countLookup(node == null ? null : node.key);
+        return node;
+    }
+
+    /**
+     * Counts a lookup in adaptive mode and reorganizes if it completes a
+     * period and lookups may reorganize.
+     *
+     * @param key the key object of the node found, or null for a miss
+     */
+    private void countLookup(K key) {
+        if (key != null)
+            hits.computeIfAbsent(key, first -> new int[1])[0]++;
+        if (++lookupsSinceReorganization >= adaptivePeriod && reorganizeOnRead)
+            reorganize();
+    }
+
+    /**
+     * Returns how many keys are smaller than key in O(log n). key does not
+     * have to be in the tree.
+     *
      * @param key
-     * @return
-     * @throws IllegalNullKeyException
+     * @return the number of keys smaller than key, which is the index key
+     *         has or would have in getInOrderTraversal()
+     * @throws IllegalNullKeyException if key is null
      */
-    private BSTNode<K, V> search(BSTNode<K, V> node, K key) throws IllegalNullKeyException {
+    public int rank(K key) throws IllegalNullKeyException {
         if (key == null)
             throw new IllegalNullKeyException();
-        else if (node == null)
-            return null;
-        else if (node.removed == true)
-            return null;
-        else if (node.key.equals(key))
-            return node;
-        else if (node.key.compareTo(key) > 0)
-            return search(node.left, key);
-        else if (node.key.compareTo(key) < 0)
-            return search(node.right, key);
-        else
-            return null;
+        return rank(key, false);
+    }
+
+    /**
+     * Returns the key at index i of the in-order traversal in O(log n).
+     *
+     * @param i index from 0 to numKeys() - 1
+     * @return the (i + 1)-th smallest key
+     * @throws IndexOutOfBoundsException if i is out of range
+     */
+    public K select(int i) {
+        if (i < 0 || i >= numKeys)
+            throw new IndexOutOfBoundsException("index " + i + " of " + numKeys + " keys");
+        return selectNode(i).key;
+    }
+
+    /**
+     * @param i index from 0 to numKeys - 1
+     * @return the live node at index i of the in-order traversal
+     */
+    private BSTNode<K, V> selectNode(int i) {
+        BSTNode<K, V> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (i < leftSize)
+                node = node.left;
+            else if (i == leftSize && !node.removed)
+                return node;
+            else {
+                i -= leftSize + (node.removed ? 0 : 1);
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns how many keys lie between low and high, both inclusive, in
+     * O(log n).
+     *
+     * @param low
+     * @param high
+     * @return the number of keys k with low <= k <= high, 0 if high < low
+     * @throws IllegalNullKeyException if low or high is null
+     */
+    public int countInRange(K low, K high) throws IllegalNullKeyException {
+        if (low == null || high == null)
+            throw new IllegalNullKeyException();
+        if (compare(high, low) < 0)
+            return 0;
+        return rank(high, true) - rank(low, false);
+    }
+
+    /**
+     * Returns the key at the given percentile by the nearest-rank method,
+     * the smallest key with at least percent % of the keys at or below it,
+     * in O(log n).
+     *
+     * @param percent from 0 to 100; 0 gives the smallest key
+     * @return the key at that percentile
+     * @throws IllegalArgumentException if percent is not in [0, 100]
+     * @throws NoSuchElementException   if the tree is empty
+     */
+    public K percentile(double percent) {
+        if (!(percent >= 0 && percent <= 100))
+            throw new IllegalArgumentException("percent must be in [0, 100]: " + percent);
+        if (numKeys == 0)
+            throw new NoSuchElementException();
+        int rank = (int) Math.ceil(percent / 100 * numKeys);
+        return select(Math.max(rank, 1) - 1);
+    }
+
+    /**
+     * Returns the smallest key in the tree.
+     *
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public K firstKey() {
+        if (numKeys == 0)
+            throw new NoSuchElementException();
+        return select(0);
+    }
+
+    /**
+     * Returns the largest key in the tree.
+     *
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public K lastKey() {
+        if (numKeys == 0)
+            throw new NoSuchElementException();
+        return select(numKeys - 1);
+    }
+
+    /**
+     * Returns the largest key smaller than key, or null, in O(log n).
+     */
+    public K lowerKey(K key) throws IllegalNullKeyException {
+        return keyOf(lowerNode(checkKey(key), false));
+    }
+
+    /**
+     * Returns the largest key smaller than or equal to key, or null, in O(log n).
+     */
+    public K floorKey(K key) throws IllegalNullKeyException {
+        return keyOf(lowerNode(checkKey(key), true));
+    }
+
+    /**
+     * Returns the smallest key larger than or equal to key, or null, in O(log n).
+     */
+    public K ceilingKey(K key) throws IllegalNullKeyException {
+        return keyOf(higherNode(checkKey(key), true));
+    }
+
+    /**
+     * Returns the smallest key larger than key, or null, in O(log n).
+     */
+    public K higherKey(K key) throws IllegalNullKeyException {
+        return keyOf(higherNode(checkKey(key), false));
+    }
+
+    private static <K> K checkKey(K key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        return key;
+    }
+
+    private static <K> K keyOf(BSTNode<K, ?> node) {
+        return node == null ? null : node.key;
+    }
+
+    /**
+     * Returns the live node with the largest key below key (or equal to it
+     * if inclusive), or null. A null key means no bound, giving the largest
+     * node. Without dead nodes this is one descent; with them it goes
+     * through rank and select, which skip dead nodes by their sizes.
+     *
+     * @param key
+     * @param inclusive
+     * @return the node, or null if there is none
+     */
+    BSTNode<K, V> lowerNode(K key, boolean inclusive) {
+        if (numDeadNodes > 0) {
+            int rank = key == null ? numKeys : rank(key, inclusive);
+            return rank == 0 ? null : selectNode(rank - 1);
+        }
+        BSTNode<K, V> best = null;
+        for (BSTNode<K, V> node = root; node != null; ) {
+            int compare = key == null ? 1 : compare(key, node.key);
+            if (compare > 0 || (compare == 0 && inclusive)) {
+                best = node;
+                node = node.right;
+            } else
+                node = node.left;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the live node with the smallest key above key (or equal to it
+     * if inclusive), or null. A null key means no bound, giving the
+     * smallest node.
+     *
+     * @param key
+     * @param inclusive
+     * @return the node, or null if there is none
+     */
+    BSTNode<K, V> higherNode(K key, boolean inclusive) {
+        if (numDeadNodes > 0) {
+            int rank = key == null ? 0 : rank(key, !inclusive);
+            return rank == numKeys ? null : selectNode(rank);
+        }
+        BSTNode<K, V> best = null;
+        for (BSTNode<K, V> node = root; node != null; ) {
+            int compare = key == null ? -1 : compare(key, node.key);
+            if (compare < 0 || (compare == 0 && inclusive)) {
+                best = node;
+                node = node.left;
+            } else
+                node = node.right;
+        }
+        return best;
+    }
+
+    /**
+     * @param key
+     * @param inclusive whether to count key itself
+     * @return the number of live keys smaller than (or equal to) key
+     */
+    int rank(K key, boolean inclusive) {
+        int count = 0;
+        BSTNode<K, V> node = root;
+        while (node != null) {
+            int compare = compare(key, node.key);
+            if (compare < 0 || (compare == 0 && !inclusive))
+                node = node.left;
+            else {
+                count += size(node.left) + (node.removed ? 0 : 1);
+                node = node.right;
+            }
+        }
+        return count;
     }
 
     /**
@@ -606,38 +3127,52 @@ public class BALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
      */
     @Override
     public void print() {
-        if (root == null)
-            System.out.print("Tree does not exist");
-        else {
-            int height = getHeight();
-            for (int level = 1; level <= height; level++) {
-                printHelper(root, level);
-                System.out.println("");
-            }
-        }
+        StringBuilder text = new StringBuilder();
+        render(text);
+        printSink.print(text);
     }
 
     /**
-     * @param node
-     * @param level
+     * Sets where print() writes the tree. The tree is always rendered into a
+     * buffer first and handed to the sink with a single append.
+     *
+     * @param sink destination of print(), System.out by default
      */
-    private void printHelper(BSTNode<K, V> node, int level) {
-        if (level == 1) {
-            if (node == null)
-                System.out.print("X  ");
-            else if (node.removed == true)
-                System.out.print("X  ");
-            else
-                System.out.print(node.key + "  ");
-        } else {
-            if (node.left != null)
-                printHelper(node.left, level - 1);
-            else
-                System.out.print("X  ");
-            if (node.right != null)
-                printHelper(node.right, level - 1);
-            else
-                System.out.print("X  ");
+    public void setPrintSink(Appendable sink) {
+        setPrintSink(sink, null);
+    }
+
+    /**
+     * Sets where print() writes the tree and which executor performs the
+     * write. The tree is rendered on the calling thread, so only the I/O is
+     * moved off it. A null executor writes on the calling thread.
+     *
+     * @param sink     destination of print()
+     * @param executor runs the writes, or null
+     */
+    public void setPrintSink(Appendable sink, Executor executor) {
+        printSink.set(sink, executor);
+    }
+
+    /**
+     * Renders the tree one level per line in a single breadth-first pass.
+     * Missing children and removed nodes are shown as X.
+     *
+     * @param text receives the rendering
+     */
+    private void render(StringBuilder text) {
+        if (root == null) {
+            text.append("Tree does not exist");
+            return;
         }
+        breadthFirst(true, (level, number) -> {
+            for (BSTNode<K, V> node : level) {
+                if (node == null || node.removed)
+                    text.append("X  ");
+                else
+                    text.append(node.key).append("  ");
+            }
+            text.append(System.lineSeparator());
+        });
     }
 }
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A fixed-size cache of lookup results in front of a BALST, evicting with
+ * the CLOCK algorithm: every slot has a referenced bit that a hit sets, and
+ * the hand sweeping the slots for a victim clears set bits and evicts the
+ * first slot whose bit is already clear. Hot keys keep their bit set and
+ * survive the sweep, at the cost of one boolean write per hit instead of
+ * the list reordering LRU needs.
+ * <p>
+ * Keys are found by hashing, so their equals and hashCode must agree with
+ * the order of the tree, as they do for String and the boxed primitives in
+ * their natural order. The tree invalidates a key whenever a write may
+ * change its result, and clears the whole cache on writes to a tree whose
+ * comparator may not agree with equals.
+ *
+ * @param <K> is the generic type of key
+ * @param <V> is the generic type of value
+ */
+final class BALSTLookupCache<K, V> {
+
+    /* the cached result for a key that is not in the tree */
+    static final Object ABSENT = new Object();
+
+    private final HashMap<K, Integer> slots;
+
+    private final Object[] keys;
+
+    private final Object[] values;
+
+    private final boolean[] referenced;
+
+    private int hand;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * @param capacity most results held at once, at least 1
+     */
+    BALSTLookupCache(int capacity) {
+        slots = new HashMap<>(capacity * 4 / 3 + 1);
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        referenced = new boolean[capacity];
+    }
+
+    /**
+     * @return the slot holding the result for key, or -1 if nothing is
+     *         cached for key
+     */
+    int find(K key) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            misses++;
+            return -1;
+        }
+        hits++;
+        referenced[slot] = true;
+        return slot;
+    }
+
+    /**
+     * @return the key cached in slot, the one the tree holds if it has it
+     */
+    @SuppressWarnings("unchecked")
+    K key(int slot) {
+        return (K) keys[slot];
+    }
+
+    /**
+     * @return the value cached in slot, or ABSENT if its key is not in the tree
+     */
+    Object value(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Caches the result of looking key up, evicting another key if full.
+     *
+     * @param key   a key find just missed, preferably the key object of
+     *              the tree so key(slot) can give it back
+     * @param value its value, or ABSENT
+     */
+    void put(K key, Object value) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            while (keys[hand] != null && referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % keys.length;
+            }
+            slot = hand;
+            hand = (hand + 1) % keys.length;
+            if (keys[slot] != null)
+                slots.remove(keys[slot]);
+            keys[slot] = key;
+            slots.put(key, slot);
+        }
+        values[slot] = value;
+        referenced[slot] = false;
+    }
+
+    /**
+     * Drops whatever is cached for key.
+     */
+    void invalidate(K key) {
+        Integer slot = slots.remove(key);
+        if (slot != null) {
+            keys[slot] = null;
+            values[slot] = null;
+            referenced[slot] = false;
+        }
+    }
+
+    /**
+     * Drops every cached result; the statistics are kept.
+     */
+    void clear() {
+        if (slots.isEmpty())
+            return;
+        slots.clear();
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, false);
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+}
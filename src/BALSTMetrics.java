@@ -0,0 +1,320 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * BALSTMetrics collects opt-in instrumentation for one or more BALSTs:
+ * single and double rotations, key comparisons, the depth of every lookup
+ * and latency histograms for insert, remove and get. Rotations are those
+ * of insert and remove, the same ones numRotations() counts.
+ * <p>
+ * A tree only records into a metrics object after setMetrics(metrics);
+ * without one, each hot path costs a single null check of a plain field,
+ * with no allocation and no volatile write. Recording uses LongAdder and
+ * atomic arrays, so readers on several threads (as in ConcurrentBALST) can
+ * record at the same time.
+ */
+public class BALSTMetrics implements BALSTMetricsMXBean {
+
+    /* lookups deeper than this are counted in the last depth bucket */
+    private static final int MAX_DEPTH = 63;
+
+    private final LongAdder singleRotations = new LongAdder();
+    private final LongAdder doubleRotations = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final AtomicLongArray depths = new AtomicLongArray(MAX_DEPTH + 1);
+
+    private final Histogram insertLatency = new Histogram();
+    private final Histogram removeLatency = new Histogram();
+    private final Histogram getLatency = new Histogram();
+
+    void rotated(boolean twice) {
+        (twice ? doubleRotations : singleRotations).increment();
+    }
+
+    void compared() {
+        comparisons.increment();
+    }
+
+    /**
+     * Records a lookup that compared against depth nodes.
+     */
+    void searched(int depth) {
+        comparisons.add(depth);
+        lookups.increment();
+        depths.incrementAndGet(Math.min(depth, MAX_DEPTH));
+    }
+
+    void inserted(long nanos) {
+        insertLatency.record(nanos);
+    }
+
+    void removed(long nanos) {
+        removeLatency.record(nanos);
+    }
+
+    void got(long nanos) {
+        getLatency.record(nanos);
+    }
+
+    @Override
+    public long getSingleRotations() {
+        return singleRotations.sum();
+    }
+
+    @Override
+    public long getDoubleRotations() {
+        return doubleRotations.sum();
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * Returns a copy of every counter. Counters keep changing while it is
+     * taken, so the copy is only consistent if the trees are idle.
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    @Override
+    public void reset() {
+        singleRotations.reset();
+        doubleRotations.reset();
+        comparisons.reset();
+        lookups.reset();
+        for (int i = 0; i <= MAX_DEPTH; i++)
+            depths.set(i, 0);
+        insertLatency.reset();
+        removeLatency.reset();
+        getLatency.reset();
+    }
+
+    /**
+     * Registers this object with the platform MBean server as
+     * BALST:type=Metrics,name=name.
+     *
+     * @param name
+     * @return the name it was registered under
+     * @throws JMException if the name is taken or invalid
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("BALST:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * A log-linear histogram in the style of HdrHistogram: each power of two
+     * is split into 8 buckets, so a recorded value is reported within 12.5%
+     * whatever its magnitude, in a fixed 4 KiB of counters.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            value = Math.max(value, 0);
+            counts.incrementAndGet(index(value));
+            count.increment();
+            max.accumulate(value);
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BITS + 1) << SUB_BITS) + mantissa;
+        }
+
+        /**
+         * @return the largest value that falls into bucket index
+         */
+        static long highestValue(int index) {
+            if (index < SUB_BUCKETS)
+                return index;
+            int shift = (index >>> SUB_BITS) - 1;
+            long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+
+        /**
+         * @param percent from 0 to 100
+         * @return the value at or below which percent % of the recorded values lie
+         */
+        long percentile(double percent) {
+            long total = count.sum();
+            if (total == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(percent / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= target)
+                    return Math.min(highestValue(i), max.get());
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++)
+                counts.set(i, 0);
+            count.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * Latency of one operation in nanoseconds.
+     */
+    public static final class Latency {
+
+        private final long count;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        Latency(Histogram histogram) {
+            count = histogram.count.sum();
+            p50 = histogram.percentile(50);
+            p90 = histogram.percentile(90);
+            p99 = histogram.percentile(99);
+            p999 = histogram.percentile(99.9);
+            max = histogram.max.get();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d p50=%dns p90=%dns p99=%dns p99.9=%dns max=%dns", count, p50, p90, p99, p999, max);
+        }
+    }
+
+    /**
+     * A point-in-time copy of all counters.
+     */
+    public static final class Snapshot {
+
+        private final long singleRotations;
+        private final long doubleRotations;
+        private final long comparisons;
+        private final long lookups;
+        private final long[] searchDepths;
+        private final Latency insertLatency;
+        private final Latency removeLatency;
+        private final Latency getLatency;
+
+        Snapshot(BALSTMetrics metrics) {
+            singleRotations = metrics.singleRotations.sum();
+            doubleRotations = metrics.doubleRotations.sum();
+            comparisons = metrics.comparisons.sum();
+            lookups = metrics.lookups.sum();
+            searchDepths = new long[MAX_DEPTH + 1];
+            for (int i = 0; i <= MAX_DEPTH; i++)
+                searchDepths[i] = metrics.depths.get(i);
+            insertLatency = new Latency(metrics.insertLatency);
+            removeLatency = new Latency(metrics.removeLatency);
+            getLatency = new Latency(metrics.getLatency);
+        }
+
+        public long getSingleRotations() {
+            return singleRotations;
+        }
+
+        public long getDoubleRotations() {
+            return doubleRotations;
+        }
+
+        /**
+         * Returns the number of key comparisons made by lookups, inserts and removes.
+         */
+        public long getComparisons() {
+            return comparisons;
+        }
+
+        public long getLookups() {
+            return lookups;
+        }
+
+        /**
+         * Returns how many lookups compared against i nodes, at index i.
+         */
+        public long[] getSearchDepths() {
+            return searchDepths.clone();
+        }
+
+        public double getMeanSearchDepth() {
+            long total = 0;
+            for (int i = 0; i < searchDepths.length; i++)
+                total += i * searchDepths[i];
+            return lookups == 0 ? 0 : (double) total / lookups;
+        }
+
+        public Latency getInsertLatency() {
+            return insertLatency;
+        }
+
+        public Latency getRemoveLatency() {
+            return removeLatency;
+        }
+
+        public Latency getGetLatency() {
+            return getLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("rotations: %d single, %d double%ncomparisons: %d%nlookups: %d, mean depth %.2f%n"
+                    + "insert: %s%nremove: %s%nget: %s", singleRotations, doubleRotations, comparisons, lookups,
+                    getMeanSearchDepth(), insertLatency, removeLatency, getLatency);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * JMX view of a BALSTMetrics. Register it with BALSTMetrics.register; the
+ * snapshot shows up as composite data in any JMX console.
+ */
+public interface BALSTMetricsMXBean {
+
+    long getSingleRotations();
+
+    long getDoubleRotations();
+
+    long getComparisons();
+
+    long getLookups();
+
+    BALSTMetrics.Snapshot getSnapshot();
+
+    void reset();
+}
@@ -0,0 +1,542 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * BALSTNavigableMap is the NavigableMap view returned by
+ * BALST.asNavigableMap(), optionally restricted to a key range and in
+ * descending order. It holds nothing but its bounds, so every call is one
+ * O(log n) operation on the tree, and size() comes from two rank queries
+ * instead of a count.
+ * <p>
+ * Null keys throw NullPointerException, as in TreeMap. Entries handed out
+ * by the view are immutable snapshots; use put to change a value.
+ *
+ * @param <K> is the generic type of key
+ * @param <V> is the generic type of value
+ */
+class BALSTNavigableMap<K extends Comparable<K>, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+    private final BALST<K, V> tree;
+
+    /* bounds in ascending key order, null for none */
+    private final K low;
+    private final boolean lowInclusive;
+    private final K high;
+    private final boolean highInclusive;
+
+    private final boolean descending;
+
+    BALSTNavigableMap(BALST<K, V> tree, K low, boolean lowInclusive, K high, boolean highInclusive, boolean descending) {
+        this.tree = tree;
+        this.low = low;
+        this.lowInclusive = lowInclusive;
+        this.high = high;
+        this.highInclusive = highInclusive;
+        this.descending = descending;
+    }
+
+    private boolean tooLow(K key) {
+        if (low == null)
+            return false;
+        int compare = tree.compare(key, low);
+        return compare < 0 || (compare == 0 && !lowInclusive);
+    }
+
+    private boolean tooHigh(K key) {
+        if (high == null)
+            return false;
+        int compare = tree.compare(key, high);
+        return compare > 0 || (compare == 0 && !highInclusive);
+    }
+
+    private boolean inRange(K key) {
+        return !tooLow(key) && !tooHigh(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K cast(Object key) {
+        return (K) Objects.requireNonNull(key);
+    }
+
+    @Override
+    public int size() {
+        int upper = high == null ? tree.numKeys() : tree.rank(high, highInclusive);
+        int lower = low == null ? 0 : tree.rank(low, !lowInclusive);
+        return Math.max(0, upper - lower);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return node(cast(key)) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        BSTNode<K, V> node = node(cast(key));
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (!inRange(Objects.requireNonNull(key)))
+            throw new IllegalArgumentException("key out of range: " + key);
+        try {
+            return tree.put(key, value);
+        } catch (IllegalNullKeyException e) {
+            throw new NullPointerException();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        BSTNode<K, V> node = node(cast(key));
+        if (node == null)
+            return null;
+        V value = node.value; // lazy deletion clears it
+        try {
+            tree.remove(node.key);
+        } catch (IllegalNullKeyException | KeyNotFoundException e) {
+            throw new IllegalStateException(e); // node was just found live
+        }
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        List<K> keys = new ArrayList<>(navigableKeySet());
+        try {
+            tree.removeAll(keys);
+        } catch (IllegalNullKeyException e) {
+            throw new IllegalStateException(e); // keys came from the tree
+        }
+    }
+
+    /**
+     * @param key
+     * @return the live node holding key if it is in range, else null
+     */
+    private BSTNode<K, V> node(K key) {
+        if (!inRange(key))
+            return null;
+        BSTNode<K, V> node = tree.higherNode(key, true);
+        return node != null && tree.compare(node.key, key) == 0 ? node : null;
+    }
+
+    /* navigation in ascending key order, clipped to the bounds */
+
+    private BSTNode<K, V> lowest() {
+        BSTNode<K, V> node = tree.higherNode(low, lowInclusive);
+        return node == null || tooHigh(node.key) ? null : node;
+    }
+
+    private BSTNode<K, V> highest() {
+        BSTNode<K, V> node = tree.lowerNode(high, highInclusive);
+        return node == null || tooLow(node.key) ? null : node;
+    }
+
+    private BSTNode<K, V> above(K key, boolean inclusive) {
+        if (tooLow(Objects.requireNonNull(key)))
+            return lowest();
+        BSTNode<K, V> node = tree.higherNode(key, inclusive);
+        return node == null || tooHigh(node.key) ? null : node;
+    }
+
+    private BSTNode<K, V> below(K key, boolean inclusive) {
+        if (tooHigh(Objects.requireNonNull(key)))
+            return highest();
+        BSTNode<K, V> node = tree.lowerNode(key, inclusive);
+        return node == null || tooLow(node.key) ? null : node;
+    }
+
+    private static <K, V> Map.Entry<K, V> entry(BSTNode<K, V> node) {
+        return node == null ? null : new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+    }
+
+    private static <K> K key(BSTNode<K, ?> node) {
+        return node == null ? null : node.key;
+    }
+
+    private static <K> K keyOrThrow(BSTNode<K, ?> node) {
+        if (node == null)
+            throw new NoSuchElementException();
+        return node.key;
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return entry(descending ? above(key, false) : below(key, false));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return key(descending ? above(key, false) : below(key, false));
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return entry(descending ? above(key, true) : below(key, true));
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return key(descending ? above(key, true) : below(key, true));
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return entry(descending ? below(key, true) : above(key, true));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return key(descending ? below(key, true) : above(key, true));
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return entry(descending ? below(key, false) : above(key, false));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return key(descending ? below(key, false) : above(key, false));
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return entry(descending ? highest() : lowest());
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        return entry(descending ? lowest() : highest());
+    }
+
+    @Override
+    public K firstKey() {
+        return keyOrThrow(descending ? highest() : lowest());
+    }
+
+    @Override
+    public K lastKey() {
+        return keyOrThrow(descending ? lowest() : highest());
+    }
+
+    @Override
+    public Map.Entry<K, V> pollFirstEntry() {
+        Map.Entry<K, V> entry = firstEntry();
+        if (entry != null)
+            remove(entry.getKey());
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<K, V> pollLastEntry() {
+        Map.Entry<K, V> entry = lastEntry();
+        if (entry != null)
+            remove(entry.getKey());
+        return entry;
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return descending ? Collections.reverseOrder(tree.comparator()) : tree.comparator();
+    }
+
+    /* views */
+
+    @Override
+    public BALSTNavigableMap<K, V> descendingMap() {
+        return new BALSTNavigableMap<>(tree, low, lowInclusive, high, highInclusive, !descending);
+    }
+
+    @Override
+    public BALSTNavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        Objects.requireNonNull(fromKey);
+        Objects.requireNonNull(toKey);
+        return descending ? view(toKey, toInclusive, fromKey, fromInclusive) : view(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public BALSTNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        Objects.requireNonNull(toKey);
+        return descending ? view(toKey, inclusive, null, false) : view(null, false, toKey, inclusive);
+    }
+
+    @Override
+    public BALSTNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        Objects.requireNonNull(fromKey);
+        return descending ? view(null, false, fromKey, inclusive) : view(fromKey, inclusive, null, false);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * @param from new lower bound in ascending order, null to keep this map's
+     * @param to   new upper bound in ascending order, null to keep this map's
+     * @return the view of the tree between the bounds
+     * @throws IllegalArgumentException if a bound is outside this map's range or from > to
+     */
+    private BALSTNavigableMap<K, V> view(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (from != null && to != null && tree.compare(from, to) > 0)
+            throw new IllegalArgumentException("fromKey > toKey");
+        if (from == null) {
+            from = low;
+            fromInclusive = lowInclusive;
+        } else
+            checkBound(from, fromInclusive);
+        if (to == null) {
+            to = high;
+            toInclusive = highInclusive;
+        } else
+            checkBound(to, toInclusive);
+        return new BALSTNavigableMap<>(tree, from, fromInclusive, to, toInclusive, descending);
+    }
+
+    private void checkBound(K key, boolean inclusive) {
+        // a bound may equal an exclusive bound of this map only if it is exclusive too
+        if ((low != null && (tree.compare(key, low) < 0 || (tree.compare(key, low) == 0 && !lowInclusive && inclusive)))
+                || (high != null && (tree.compare(key, high) > 0 || (tree.compare(key, high) == 0 && !highInclusive && inclusive))))
+            throw new IllegalArgumentException("key out of range: " + key);
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return new KeySet<>(this);
+    }
+
+    @Override
+    public NavigableSet<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new ViewIterator<>(true);
+            }
+
+            @Override
+            public int size() {
+                return BALSTNavigableMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry))
+                    return false;
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                BSTNode<K, V> node = node(cast(entry.getKey()));
+                return node != null && Objects.equals(node.value, entry.getValue());
+            }
+
+            @Override
+            public void clear() {
+                BALSTNavigableMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Walks the range with the tree's range iterator. remove() removes the
+     * last key from the tree and resumes with a new range iterator just
+     * past it, since the old one is invalidated by the change.
+     */
+    private final class ViewIterator<T> implements Iterator<T> {
+
+        private final boolean entries;
+
+        private Iterator<T> iterator;
+
+        private K last;
+
+        ViewIterator(boolean entries) {
+            this.entries = entries;
+            iterator = tree.rangeIterator(low, lowInclusive, high, highInclusive, descending, entries);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            T next = iterator.next();
+            last = entries ? ((Map.Entry<K, V>) next).getKey() : (K) next;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+            BALSTNavigableMap.this.remove(last);
+            iterator = descending
+                    ? tree.rangeIterator(low, lowInclusive, last, false, true, entries)
+                    : tree.rangeIterator(last, false, high, highInclusive, false, entries);
+            last = null;
+        }
+    }
+
+    /**
+     * The NavigableSet of keys of a BALSTNavigableMap, backed by it.
+     */
+    private static final class KeySet<K extends Comparable<K>, V> extends AbstractSet<K> implements NavigableSet<K> {
+
+        private final BALSTNavigableMap<K, V> map;
+
+        KeySet(BALSTNavigableMap<K, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return map.new ViewIterator<>(false);
+        }
+
+        @Override
+        public Iterator<K> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!map.containsKey(o))
+                return false;
+            map.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public K lower(K key) {
+            return map.lowerKey(key);
+        }
+
+        @Override
+        public K floor(K key) {
+            return map.floorKey(key);
+        }
+
+        @Override
+        public K ceiling(K key) {
+            return map.ceilingKey(key);
+        }
+
+        @Override
+        public K higher(K key) {
+            return map.higherKey(key);
+        }
+
+        @Override
+        public K first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public K last() {
+            return map.lastKey();
+        }
+
+        @Override
+        public K pollFirst() {
+            Map.Entry<K, V> entry = map.pollFirstEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public K pollLast() {
+            Map.Entry<K, V> entry = map.pollLastEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public NavigableSet<K> descendingSet() {
+            return new KeySet<>(map.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+            return new KeySet<>(map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+            return new KeySet<>(map.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+            return new KeySet<>(map.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public SortedSet<K> subSet(K fromElement, K toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<K> headSet(K toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<K> tailSet(K fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
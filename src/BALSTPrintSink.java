@@ -0,0 +1,61 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Where the print() of a tree writes: an Appendable, System.out by default,
+ * and optionally an executor that performs the write. The tree renders
+ * itself into a buffer on the calling thread and hands it over with a
+ * single append, so only the I/O moves off that thread.
+ */
+final class BALSTPrintSink {
+
+    private Appendable sink = System.out;
+
+    private Executor executor;
+
+    BALSTPrintSink() {
+    }
+
+    /**
+     * @param source the sink to start out as a copy of
+     */
+    BALSTPrintSink(BALSTPrintSink source) {
+        sink = source.sink;
+        executor = source.executor;
+    }
+
+    /**
+     * @param sink     destination of print()
+     * @param executor runs the writes, or null to write on the calling thread
+     * @throws IllegalArgumentException if sink is null
+     */
+    void set(Appendable sink, Executor executor) {
+        if (sink == null)
+            throw new IllegalArgumentException("sink must not be null");
+        this.sink = sink;
+        this.executor = executor;
+    }
+
+    /**
+     * Appends text to the sink and flushes it if it is Flushable.
+     */
+    void print(CharSequence text) {
+        Appendable target = sink;
+        if (executor == null)
+            write(target, text);
+        else
+            executor.execute(() -> write(target, text));
+    }
+
+    private static void write(Appendable sink, CharSequence text) {
+        try {
+            sink.append(text);
+            if (sink instanceof Flushable)
+                ((Flushable) sink).flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
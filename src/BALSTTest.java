@@ -1,5 +1,23 @@
 import static org.junit.Assert.fail;
 
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.Assert;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -197,6 +215,924 @@ public class BALSTTest {
             fail( "Unexpected exception AVL 000: "+e.getMessage() );
         }
     }
+    /**
+     * Insert 2^10 - 1 keys in sorted order. With AVL rebalancing the
+     * result is a perfect tree, so the height must be exactly 10.
+     */
+    @Test
+    void testBALST_007_insert_sorted_perfect_height() {
+        try {
+            for (int i = 1; i <= 1023; i++)
+                balst2.insert(i, null);
+            Assert.assertEquals(1023, balst2.numKeys());
+            Assert.assertEquals(10, balst2.getHeight());
+            Assert.assertEquals(Integer.valueOf(512), balst2.getKeyAtRoot());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Load 1M sequential keys and 1M pseudo-random keys. Each insert must
+     * only rebalance its own path, so both loads finish in bounded time and
+     * the height stays within the AVL bound of 1.44 log2(n + 2). The 10M
+     * loads are measured by InsertBenchmark in the jmh profile.
+     */
+    @Test
+    void testBALST_008_insert_scaling() {
+        final int n = 1_000_000;
+        final long limitNanos = 10_000_000_000L;
+        final int maxHeight = (int) (1.4405 * Math.log(n + 2) / Math.log(2));
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++)
+                balst2.insert(i, null);
+            if (System.nanoTime() - start > limitNanos)
+                fail("sequential load took too long");
+            Assert.assertEquals(n, balst2.numKeys());
+            Assert.assertTrue(balst2.getHeight() <= maxHeight);
+            Assert.assertTrue(balst2.contains(n / 3));
+
+            balst2 = createInstance2();
+            start = System.nanoTime();
+            // multiplying by an odd constant is a bijection on int, so keys never repeat
+            for (int i = 0; i < n; i++)
+                balst2.insert(i * 0x9E3779B1, null);
+            if (System.nanoTime() - start > limitNanos)
+                fail("random load took too long");
+            Assert.assertEquals(n, balst2.numKeys());
+            Assert.assertTrue(balst2.getHeight() <= maxHeight);
+            Assert.assertTrue(balst2.contains(12345 * 0x9E3779B1));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Remove half of the keys and check that the nodes are really unlinked:
+     * the height shrinks back to the AVL bound and every remaining key can
+     * still be found.
+     */
+    @Test
+    void testBALST_009_remove_unlinks_nodes() {
+        try {
+            for (int i = 1; i <= 1023; i++)
+                balst2.insert(i, "" + i);
+            for (int i = 1; i <= 1023; i += 2)
+                balst2.remove(i);
+            Assert.assertEquals(511, balst2.numKeys());
+            Assert.assertEquals(511, balst2.getInOrderTraversal().size());
+            Assert.assertTrue(balst2.getHeight() <= 9);
+            for (int i = 2; i <= 1023; i += 2)
+                Assert.assertEquals("" + i, balst2.get(i));
+            Assert.assertFalse(balst2.contains(1));
+            Assert.assertEquals(0, balst2.numDeadNodes());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * With lazy deletion on, removed keys stay linked as tombstones until the
+     * dead ratio passes the threshold, then the tree is compacted.
+     */
+    @Test
+    void testBALST_010_lazy_delete_compaction() {
+        try {
+            balst2.setLazyDeletion(0.5);
+            for (int i = 1; i <= 100; i++)
+                balst2.insert(i, "" + i);
+            for (int i = 1; i <= 50; i++)
+                balst2.remove(i);
+            Assert.assertEquals(50, balst2.numKeys());
+            Assert.assertEquals(50, balst2.numDeadNodes());
+            Assert.assertEquals(0.5, balst2.deadNodeRatio(), 0.0);
+            Assert.assertFalse(balst2.contains(10));
+            Assert.assertEquals(50, balst2.getInOrderTraversal().size());
+
+            balst2.insert(10, "ten");
+            Assert.assertEquals("ten", balst2.get(10));
+            Assert.assertEquals(49, balst2.numDeadNodes());
+
+            balst2.remove(10);
+            balst2.remove(51);
+            Assert.assertEquals(1, balst2.numCompactions());
+            Assert.assertEquals(0, balst2.numDeadNodes());
+            Assert.assertEquals(49, balst2.numKeys());
+            Assert.assertEquals(6, balst2.getHeight());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Lookups that miss must not throw: contains returns false,
+     * getOrDefault returns the default and find returns an empty Optional.
+     */
+    @Test
+    void testBALST_011_lookup_without_exceptions() {
+        try {
+            Assert.assertNull(balst1.getKeyAtRoot());
+            balst1.insert("bb", "2");
+            balst1.insert("aa", "1");
+            Assert.assertTrue(balst1.contains("aa"));
+            Assert.assertFalse(balst1.contains("cc"));
+            Assert.assertEquals("1", balst1.getOrDefault("aa", "none"));
+            Assert.assertEquals("none", balst1.getOrDefault("cc", "none"));
+            Assert.assertEquals("2", balst1.find("bb").get());
+            Assert.assertFalse(balst1.find("cc").isPresent());
+            Assert.assertNull(balst1.getKeyOfRightChildOf("bb"));
+            Assert.assertEquals("aa", balst1.getKeyOfLeftChildOf("bb"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * print() must write one level per line to the configured sink,
+     * showing missing children as X on every level below their parent.
+     */
+    @Test
+    void testBALST_012_print_to_sink() {
+        try {
+            StringBuilder out = new StringBuilder();
+            balst2.setPrintSink(out);
+            balst2.print();
+            Assert.assertEquals("Tree does not exist", out.toString());
+
+            balst2.insert(10, "10");
+            balst2.insert(20, "20");
+            balst2.insert(30, "30");
+            balst2.insert(40, "40");
+            balst2.remove(40);
+            balst2.insert(40, "40");
+            out.setLength(0);
+            balst2.print();
+            String nl = System.lineSeparator();
+            Assert.assertEquals("20  " + nl + "10  30  " + nl + "X  X  X  40  " + nl, out.toString());
+
+            // a missing child keeps its X on every deeper level
+            BALST<Integer,String> deep = new BALST<Integer,String>();
+            for (int key : new int[] {20, 10, 40, 15, 30, 50, 60})
+                deep.insert(key, "" + key);
+            out.setLength(0);
+            deep.setPrintSink(out);
+            deep.print();
+            Assert.assertEquals("20  " + nl + "10  40  " + nl + "X  15  30  50  " + nl
+                    + "X  X  X  X  X  X  60  " + nl, out.toString());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * A snapshot taken in persistent mode must keep its keys, values and
+     * shape while the live tree keeps changing, and must reject writes.
+     */
+    @Test
+    void testBALST_013_persistent_snapshot() {
+        try {
+            balst2.setPersistent(true);
+            for (int i = 1; i <= 100; i++)
+                balst2.insert(i, "" + i);
+            BALST<Integer,String> snapshot = balst2.snapshot();
+            List<Integer> before = snapshot.getPreOrderTraversal();
+
+            for (int i = 2; i <= 100; i += 2)
+                balst2.remove(i);
+            balst2.insert(200, "200");
+
+            Assert.assertEquals(51, balst2.numKeys());
+            Assert.assertEquals(100, snapshot.numKeys());
+            Assert.assertEquals(before, snapshot.getPreOrderTraversal());
+            Assert.assertEquals("50", snapshot.get(50));
+            Assert.assertFalse(snapshot.contains(200));
+            try {
+                snapshot.insert(300, "300");
+                fail("insert into a snapshot did not throw");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * The lazy iterators must visit keys in the same order as the list
+     * traversals, and the parallel stream must see every key exactly once.
+     */
+    @Test
+    void testBALST_014_iterators_and_streams() {
+        try {
+            for (int i = 1; i <= 500; i++)
+                balst2.insert(i * 7 % 501, "" + i);
+            Assert.assertEquals(balst2.getInOrderTraversal(), toList(balst2.keyIterator(BALST.Order.IN_ORDER)));
+            Assert.assertEquals(balst2.getPreOrderTraversal(), toList(balst2.keyIterator(BALST.Order.PRE_ORDER)));
+            Assert.assertEquals(balst2.getPostOrderTraversal(), toList(balst2.keyIterator(BALST.Order.POST_ORDER)));
+            Assert.assertEquals(balst2.getLevelOrderTraversal(), toList(balst2.keyIterator(BALST.Order.LEVEL_ORDER)));
+
+            Map.Entry<Integer,String> first = balst2.entryIterator(BALST.Order.IN_ORDER).next();
+            Assert.assertEquals(Integer.valueOf(1), first.getKey());
+            Assert.assertEquals(balst2.get(1), first.getValue());
+
+            Assert.assertEquals(balst2.getInOrderTraversal(),
+                    balst2.keyStream().parallel().collect(Collectors.toList()));
+            Assert.assertEquals(500, balst2.entryStream().parallel().count());
+
+            Iterator<Integer> it = balst2.iterator();
+            it.next();
+            balst2.remove(250);
+            try {
+                it.next();
+                fail("iterator did not detect the change");
+            } catch (ConcurrentModificationException e) {
+                // expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    private static List<Integer> toList(Iterator<Integer> it) {
+        List<Integer> list = new ArrayList<>();
+        while (it.hasNext())
+            list.add(it.next());
+        return list;
+    }
+
+    /**
+     * forEachLevel must report each level once, top down, and together
+     * the levels must match the level-order traversal.
+     */
+    @Test
+    void testBALST_015_for_each_level() {
+        try {
+            for (int i = 1; i <= 15; i++)
+                balst2.insert(i, "" + i);
+            List<Integer> all = new ArrayList<>();
+            List<Integer> numbers = new ArrayList<>();
+            balst2.forEachLevel((keys, level) -> {
+                Assert.assertEquals(1 << (level - 1), keys.size());
+                all.addAll(keys);
+                numbers.add(level);
+            });
+            Assert.assertEquals(balst2.getLevelOrderTraversal(), all);
+            Assert.assertEquals(4, numbers.size());
+            Assert.assertEquals(Integer.valueOf(8), all.get(0));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Mixed inserts and removes must keep every invariant, and getHeight
+     * must match the real height that verifyInvariants recomputes.
+     */
+    @Test
+    void testBALST_016_invariants_hold() {
+        try {
+            for (int i = 0; i < 2000; i++)
+                balst2.insert(i * 37 % 2003, null);
+            for (int i = 0; i < 2000; i += 3)
+                balst2.remove(i * 37 % 2003);
+            balst2.verifyInvariants();
+            balst2.verifyInvariants(100);
+            Assert.assertTrue(balst2.isBalanced());
+            Assert.assertTrue(balst2.getHeight() <= 13);
+            Assert.assertEquals(0, createInstance2().getHeight());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * bulkLoad builds a perfectly balanced tree and rejects duplicate and
+     * out-of-order keys.
+     */
+    @Test
+    void testBALST_017_bulk_load() {
+        try {
+            int n = 100000;
+            Integer[] keys = new Integer[n];
+            String[] values = new String[n];
+            List<Map.Entry<Integer,String>> shuffled = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                keys[i] = i;
+                values[i] = "v" + i;
+                shuffled.add(new AbstractMap.SimpleEntry<>(i * 7919 % n, "v" + (i * 7919 % n)));
+            }
+            BALST<Integer,String> fromArrays = BALST.bulkLoad(keys, values);
+            BALST<Integer,String> fromUnsorted = BALST.bulkLoadUnsorted(shuffled);
+            for (BALST<Integer,String> tree : List.of(fromArrays, fromUnsorted)) {
+                tree.verifyInvariants();
+                Assert.assertEquals(n, tree.numKeys());
+                Assert.assertEquals(17, tree.getHeight());
+                Assert.assertEquals("v12345", tree.get(12345));
+                tree.insert(n, "v" + n);
+                tree.verifyInvariants();
+            }
+            Assert.assertEquals(fromArrays.getInOrderTraversal(), fromUnsorted.getInOrderTraversal());
+
+            try {
+                BALST.bulkLoad(List.of(Map.entry(1, "a"), Map.entry(1, "b")).iterator());
+                fail("duplicate key was not rejected");
+            } catch (DuplicateKeyException e) {
+                // expected
+            }
+            try {
+                BALST.bulkLoad(List.of(Map.entry(2, "a"), Map.entry(1, "b")).iterator());
+                fail("unsorted keys were not rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            Assert.assertEquals(0, BALST.bulkLoad(new Integer[0], new String[0]).numKeys());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * insertAll and removeAll apply a whole batch and report the keys they
+     * could not apply instead of stopping at the first one.
+     */
+    @Test
+    void testBALST_018_batch_insert_remove() {
+        try {
+            for (int i = 0; i < 1000; i += 2)
+                balst2.insert(i, "old" + i);
+            List<Map.Entry<Integer,String>> batch = new ArrayList<>();
+            for (int i = 999; i >= 0; i -= 3)
+                batch.add(Map.entry(i, "new" + i));
+            batch.add(Map.entry(3, "again"));
+            List<Integer> rejected = balst2.insertAll(batch);
+            balst2.verifyInvariants();
+            Assert.assertEquals(500 + 167, balst2.numKeys());
+            Assert.assertEquals(List.of(0, 3), rejected.subList(0, 2));
+            Assert.assertEquals(167 + 1, rejected.size());
+            Assert.assertEquals("old6", balst2.get(6));
+            Assert.assertEquals("new3", balst2.get(3));
+
+            List<Integer> missing = balst2.removeAll(List.of(2, 3, 5, 5, 2000));
+            balst2.verifyInvariants();
+            Assert.assertEquals(List.of(5, 5, 2000), missing);
+            Assert.assertEquals(500 + 167 - 2, balst2.numKeys());
+            Assert.assertFalse(balst2.contains(2));
+            Assert.assertFalse(balst2.contains(3));
+
+            Assert.assertEquals(List.of(), balst2.removeAll(balst2.getInOrderTraversal()));
+            Assert.assertEquals(0, balst2.numKeys());
+            Assert.assertNull(balst2.getKeyAtRoot());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * union, intersection and difference build new trees and leave both
+     * inputs unchanged, for plain and persistent inputs.
+     */
+    @Test
+    void testBALST_019_set_operations() {
+        try {
+            BALST<Integer,String> evens = new BALST<Integer,String>();
+            BALST<Integer,String> threes = new BALST<Integer,String>();
+            for (int i = 0; i < 30000; i += 2)
+                evens.insert(i, "even");
+            for (int i = 0; i < 30000; i += 3)
+                threes.insert(i, "three");
+            threes.setPersistent(true);
+
+            BALST<Integer,String> union = BALST.union(evens, threes);
+            BALST<Integer,String> intersection = BALST.intersection(evens, threes);
+            BALST<Integer,String> difference = BALST.difference(evens, threes);
+            union.verifyInvariants();
+            intersection.verifyInvariants();
+            difference.verifyInvariants();
+            Assert.assertEquals(15000 + 10000 - 5000, union.numKeys());
+            Assert.assertEquals(5000, intersection.numKeys());
+            Assert.assertEquals(10000, difference.numKeys());
+            Assert.assertEquals("even", union.get(6));
+            Assert.assertEquals("three", union.get(9));
+            Assert.assertEquals("even", intersection.get(6));
+            Assert.assertFalse(intersection.contains(4));
+            Assert.assertTrue(difference.contains(4));
+            Assert.assertFalse(difference.contains(6));
+
+            union.remove(9);
+            union.insert(30001, "new");
+            evens.remove(4);
+            Assert.assertTrue(threes.contains(9));
+            Assert.assertTrue(difference.contains(4));
+            Assert.assertEquals(10000, threes.numKeys());
+            threes.verifyInvariants();
+            union.verifyInvariants();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * split cuts a tree at a key and join puts the halves back together
+     * around a new key, both keeping the AVL invariants.
+     */
+    @Test
+    void testBALST_020_split_join() {
+        try {
+            for (int i = 0; i < 10000; i += 2)
+                balst2.insert(i, "v" + i);
+            BALST<Integer,String> right = balst2.split(5000);
+            balst2.verifyInvariants();
+            right.verifyInvariants();
+            Assert.assertEquals(2500, balst2.numKeys());
+            Assert.assertEquals(2500, right.numKeys());
+            Assert.assertEquals(Integer.valueOf(4998), balst2.getInOrderTraversal().get(2499));
+            Assert.assertEquals(Integer.valueOf(5000), right.getInOrderTraversal().get(0));
+
+            BALST<Integer,String> tail = right.split(7001);
+            right.remove(5000);
+            BALST<Integer,String> joined = BALST.join(balst2, 5000, "middle", tail);
+            joined.verifyInvariants();
+            Assert.assertEquals(2500 + 1 + 1499, joined.numKeys());
+            Assert.assertEquals("middle", joined.get(5000));
+            Assert.assertFalse(joined.contains(6000));
+            Assert.assertEquals(0, balst2.numKeys());
+            Assert.assertEquals(0, tail.numKeys());
+
+            try {
+                BALST.join(right, 6000, "x", joined);
+                fail("join accepted keys out of order");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * rank, select, countInRange and percentile agree with the in-order
+     * traversal, also with lazily deleted nodes in the tree.
+     */
+    @Test
+    void testBALST_021_order_statistics() {
+        try {
+            balst2.setLazyDeletion(0.5);
+            for (int i = 0; i < 2000; i++)
+                balst2.insert(i * 7 % 2003, "v" + i);
+            for (int i = 0; i < 2000; i += 5)
+                balst2.remove(i * 7 % 2003);
+            balst2.verifyInvariants();
+            List<Integer> keys = balst2.getInOrderTraversal();
+            for (int i = 0; i < keys.size(); i++) {
+                Assert.assertEquals(keys.get(i), balst2.select(i));
+                Assert.assertEquals(i, balst2.rank(keys.get(i)));
+            }
+            Assert.assertEquals(0, balst2.rank(-1));
+            Assert.assertEquals(keys.size(), balst2.rank(5000));
+            int expected = 0;
+            for (int key : keys)
+                if (key >= 100 && key <= 900)
+                    expected++;
+            Assert.assertEquals(expected, balst2.countInRange(100, 900));
+            Assert.assertEquals(0, balst2.countInRange(900, 100));
+            Assert.assertEquals(keys.get(0), balst2.percentile(0));
+            Assert.assertEquals(keys.get(keys.size() / 2 - 1), balst2.percentile(50));
+            Assert.assertEquals(keys.get(keys.size() - 1), balst2.percentile(100));
+            try {
+                balst2.select(keys.size());
+                fail("select accepted an index past the end");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * floor, ceiling, lower, higher and range scans find the right keys, and
+     * the NavigableMap view behaves like a TreeMap.
+     */
+    @Test
+    void testBALST_022_navigation_and_ranges() {
+        try {
+            for (int i = 10; i <= 100; i += 10)
+                balst2.insert(i, "v" + i);
+            Assert.assertEquals(Integer.valueOf(10), balst2.firstKey());
+            Assert.assertEquals(Integer.valueOf(100), balst2.lastKey());
+            Assert.assertEquals(Integer.valueOf(50), balst2.floorKey(55));
+            Assert.assertEquals(Integer.valueOf(50), balst2.floorKey(50));
+            Assert.assertEquals(Integer.valueOf(40), balst2.lowerKey(50));
+            Assert.assertEquals(Integer.valueOf(60), balst2.ceilingKey(55));
+            Assert.assertEquals(Integer.valueOf(60), balst2.higherKey(50));
+            Assert.assertNull(balst2.lowerKey(10));
+            Assert.assertNull(balst2.higherKey(100));
+
+            List<Integer> range = new ArrayList<>();
+            balst2.rangeIterator(30, false, 70, true).forEachRemaining(range::add);
+            Assert.assertEquals(List.of(40, 50, 60, 70), range);
+            range.clear();
+            balst2.rangeIterator(null, false, 25, true).forEachRemaining(range::add);
+            Assert.assertEquals(List.of(10, 20), range);
+
+            NavigableMap<Integer,String> map = balst2.asNavigableMap();
+            TreeMap<Integer,String> expected = new TreeMap<>();
+            for (int i = 10; i <= 100; i += 10)
+                expected.put(i, "v" + i);
+            Assert.assertEquals(expected, map);
+            Assert.assertEquals("v20", map.put(20, "new"));
+            expected.put(20, "new");
+            Assert.assertEquals("new", balst2.get(20));
+            Assert.assertEquals(expected.subMap(20, true, 60, false), map.subMap(20, true, 60, false));
+            Assert.assertEquals(new ArrayList<>(expected.descendingMap().headMap(50).keySet()),
+                    new ArrayList<>(map.descendingMap().headMap(50).keySet()));
+            Assert.assertEquals(3, map.tailMap(80, true).size());
+            map.headMap(30).clear();
+            Assert.assertEquals(8, balst2.numKeys());
+            Assert.assertEquals(Integer.valueOf(30), map.firstKey());
+            balst2.verifyInvariants();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Metrics count rotations, comparisons, lookups and latencies once a
+     * tree records into them, and can be read over JMX.
+     */
+    @Test
+    void testBALST_023_metrics() {
+        try {
+            BALSTMetrics metrics = new BALSTMetrics();
+            balst2.setMetrics(metrics);
+            balst2.insert(30, "a");
+            balst2.insert(10, "b");
+            balst2.insert(20, "c"); // left-right case: one double rotation
+            Assert.assertEquals(0, metrics.getSingleRotations());
+            Assert.assertEquals(1, metrics.getDoubleRotations());
+            balst2.insert(40, "d");
+            balst2.insert(50, "e"); // right-right case: one single rotation
+            Assert.assertEquals(1, metrics.getSingleRotations());
+
+            long comparisons = metrics.getComparisons();
+            Assert.assertEquals("a", balst2.get(30));
+            Assert.assertTrue(balst2.contains(50));
+            Assert.assertEquals(2, metrics.getLookups());
+            Assert.assertEquals(comparisons + 3 + 3, metrics.getComparisons());
+            balst2.remove(10);
+
+            BALSTMetrics.Snapshot snapshot = metrics.getSnapshot();
+            Assert.assertEquals(5, snapshot.getInsertLatency().getCount());
+            Assert.assertEquals(1, snapshot.getRemoveLatency().getCount());
+            Assert.assertEquals(1, snapshot.getGetLatency().getCount());
+            Assert.assertEquals(2, snapshot.getSearchDepths()[3]);
+            Assert.assertEquals(3.0, snapshot.getMeanSearchDepth(), 1e-9);
+            Assert.assertTrue(snapshot.getInsertLatency().getP50() <= snapshot.getInsertLatency().getMax());
+
+            ObjectName name = metrics.register("test-023");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(1L, server.getAttribute(name, "DoubleRotations"));
+            Assert.assertNotNull(server.getAttribute(name, "Snapshot"));
+            server.unregisterMBean(name);
+
+            metrics.reset();
+            balst2.setMetrics(null);
+            balst2.get(20);
+            Assert.assertEquals(0, metrics.getLookups());
+
+            // split rotates too, but like numRotations() the metrics only count insert and remove
+            BALST<Integer,String> tree = new BALST<Integer,String>();
+            tree.setMetrics(metrics);
+            Random random = new Random(0);
+            for (int i = 0; i < 1000; i++) {
+                int key = random.nextInt(100000);
+                if (!tree.contains(key))
+                    tree.insert(key, "v");
+            }
+            tree.split(50000);
+            Assert.assertEquals(tree.numRotations(), metrics.getSingleRotations() + 2 * metrics.getDoubleRotations());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Every balancing strategy keeps its own rule through random inserts and
+     * removes, in persistent mode too, and counts the rotations of inserts
+     * and removes.
+     */
+    @Test
+    void testBALST_024_balancing_strategies() {
+        try {
+            for (BALST.Balancing balancing : BALST.Balancing.values()) {
+                BALST<Integer,String> tree = new BALST<Integer,String>(balancing);
+                Assert.assertEquals(balancing, tree.getBalancing());
+                TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+                BALST<Integer,String> snapshot = null;
+                TreeMap<Integer,String> frozen = null;
+                for (int i = 0; i < 3000; i++) {
+                    int key = (i * 7919) % 1000;
+                    if (expected.remove(key) != null)
+                        tree.remove(key);
+                    else {
+                        expected.put(key, "v" + i);
+                        tree.insert(key, "v" + i);
+                    }
+                    // the delete fix-ups are the riskiest part, so check after every write
+                    tree.verifyInvariants();
+                    if (i == 1500) {
+                        tree.setPersistent(true);
+                        snapshot = tree.snapshot();
+                        frozen = new TreeMap<Integer,String>(expected);
+                    }
+                    // later writes must copy the nodes they change, never touch the snapshot's
+                    if (snapshot != null && i % 50 == 0) {
+                        snapshot.verifyInvariants();
+                        Assert.assertEquals(new ArrayList<>(frozen.keySet()), snapshot.getInOrderTraversal());
+                        Assert.assertEquals(frozen.size(), snapshot.numKeys());
+                    }
+                }
+                for (Integer key : frozen.keySet())
+                    Assert.assertEquals(frozen.get(key), snapshot.get(key));
+                Assert.assertEquals(new ArrayList<>(expected.keySet()), tree.getInOrderTraversal());
+                Assert.assertTrue(balancing + " made no rotations", tree.numRotations() > 0);
+
+                // sorted inserts are the worst case for an unbalanced tree
+                BALST<Integer,String> sorted = new BALST<Integer,String>(balancing);
+                for (int i = 0; i < 4096; i++)
+                    sorted.insert(i, "v" + i);
+                sorted.verifyInvariants();
+                Assert.assertTrue(balancing + " height " + sorted.getHeight(), sorted.getHeight() < 48);
+
+                // the join-based operations fall back to the strategy's own inserts and removes
+                sorted.removeAll(List.of(1, 2, 3));
+                long rotations = sorted.numRotations();
+                BALST<Integer,String> right = sorted.split(2048);
+                sorted.verifyInvariants();
+                right.verifyInvariants();
+                // only inserts and removes count rotations
+                Assert.assertEquals(rotations, sorted.numRotations());
+                Assert.assertEquals(0, right.numRotations());
+                Assert.assertEquals(0, BALST.union(sorted, tree).numRotations());
+                Assert.assertEquals(balancing, right.getBalancing());
+                Assert.assertEquals(2045, sorted.numKeys());
+                sorted.compact();
+                sorted.verifyInvariants();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Adaptive mode lifts hot keys toward the root, keeps the AVL rules,
+     * and only reorganizes on reads when allowed to.
+     */
+    @Test
+    void testBALST_025_adaptive() {
+        try {
+            for (int i = 0; i < 1023; i++)
+                balst2.insert(i, "v" + i);
+            balst2.setAdaptive(1000, false);
+            BALSTMetrics metrics = new BALSTMetrics();
+            balst2.setMetrics(metrics);
+            Integer root = balst2.getKeyAtRoot();
+            for (int i = 0; i < 2000; i++)
+                balst2.get(i % 2 == 0 ? 7 : 1000);
+            // non-mutating reads: the shape waits for the next write
+            Assert.assertEquals(root, balst2.getKeyAtRoot());
+            Assert.assertEquals(0, balst2.numReorganizations());
+            double before = metrics.getSnapshot().getMeanSearchDepth();
+            balst2.insert(5000, "v5000");
+            Assert.assertEquals(1, balst2.numReorganizations());
+            balst2.verifyInvariants();
+
+            metrics.reset();
+            balst2.get(7);
+            balst2.get(1000);
+            Assert.assertTrue("mean depth " + metrics.getSnapshot().getMeanSearchDepth() + " before " + before,
+                    metrics.getSnapshot().getMeanSearchDepth() * 1.5 < before);
+            Assert.assertTrue(balst2.getHeight() <= 11);
+
+            balst2.setAdaptive(100, true);
+            for (int i = 0; i < 250; i++)
+                balst2.contains(500);
+            Assert.assertEquals(3, balst2.numReorganizations());
+            balst2.verifyInvariants();
+            Assert.assertEquals(1024, balst2.numKeys());
+            for (int i = 0; i < 1023; i++)
+                Assert.assertEquals("v" + i, balst2.get(i));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * The lookup cache answers repeated lookups, and every write drops
+     * exactly the results it changes.
+     */
+    @Test
+    void testBALST_026_lookup_cache() {
+        try {
+            balst1.setLookupCache(2);
+            balst1.insert("apple", "red");
+            balst1.insert("banana", "yellow");
+            Assert.assertEquals("red", balst1.get("apple"));
+            Assert.assertEquals("red", balst1.get("apple"));
+            Assert.assertFalse(balst1.contains("cherry"));
+            Assert.assertFalse(balst1.contains("cherry"));
+            Assert.assertEquals(2, balst1.numCacheHits());
+            Assert.assertEquals(2, balst1.numCacheMisses());
+            Assert.assertEquals(0.5, balst1.cacheHitRatio(), 1e-9);
+
+            // cached misses and hits both follow writes
+            balst1.insert("cherry", "dark red");
+            Assert.assertEquals("dark red", balst1.get("cherry"));
+            balst1.put("apple", "green");
+            Assert.assertEquals("green", balst1.get("apple"));
+            balst1.remove("apple");
+            Assert.assertFalse(balst1.contains("apple"));
+            Assert.assertEquals(Optional.empty(), balst1.find("apple"));
+            Assert.assertEquals(2, balst1.numKeys());
+            Assert.assertEquals(List.of("banana", "cherry"), balst1.getInOrderTraversal());
+
+            // a split takes keys away from the tree without a remove
+            Assert.assertEquals("yellow", balst1.get("banana"));
+            BALST<String,String> right = balst1.split("b");
+            Assert.assertFalse(balst1.contains("banana"));
+            Assert.assertEquals("yellow", right.get("banana"));
+
+            try {
+                balst1.get("banana");
+                fail("KeyNotFoundException expected");
+            } catch (KeyNotFoundException e) {
+                // expected
+            }
+            balst1.setLookupCache(0);
+            Assert.assertEquals(0, balst1.numCacheHits());
+
+            // in adaptive mode lookups the cache answers still count as hits
+            for (int i = 0; i < 1023; i++)
+                balst2.insert(i, "v" + i);
+            balst2.setLookupCache(16);
+            balst2.setAdaptive(1000, false);
+            for (int i = 0; i < 1000; i++)
+                balst2.get(7);
+            Assert.assertEquals(999, balst2.numCacheHits());
+            balst2.reorganize();
+            int depth = 1;
+            for (Integer key = balst2.getKeyAtRoot(); key != 7; depth++)
+                key = 7 < key ? balst2.getKeyOfLeftChildOf(key) : balst2.getKeyOfRightChildOf(key);
+            Assert.assertTrue("depth " + depth, depth <= 4);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * A tree built with a comparator keeps its keys, traversals, splits
+     * and map views in the comparator's order.
+     */
+    @Test
+    void testBALST_027_comparator() {
+        try {
+            BALST<String,String> tree = new BALST<String,String>(String.CASE_INSENSITIVE_ORDER);
+            Assert.assertSame(String.CASE_INSENSITIVE_ORDER, tree.comparator());
+            for (String key : new String[] {"b", "C", "a", "D"})
+                tree.insert(key, key.toLowerCase());
+            Assert.assertEquals(List.of("a", "b", "C", "D"), tree.getInOrderTraversal());
+            Assert.assertEquals("c", tree.get("c"));
+            Assert.assertTrue(tree.contains("A"));
+            try {
+                tree.insert("B", "again");
+                fail("DuplicateKeyException expected");
+            } catch (DuplicateKeyException e) {
+                // expected
+            }
+            tree.remove("d");
+            Assert.assertEquals(3, tree.numKeys());
+
+            NavigableMap<String,String> map = tree.asNavigableMap();
+            Assert.assertSame(String.CASE_INSENSITIVE_ORDER, map.comparator());
+            Assert.assertEquals("C", map.ceilingKey("bb"));
+            Assert.assertEquals(List.of("C", "b", "a"), new ArrayList<>(map.descendingMap().keySet()));
+
+            BALST<String,String> right = tree.split("B");
+            Assert.assertEquals(List.of("a"), tree.getInOrderTraversal());
+            Assert.assertEquals(List.of("b", "C"), right.getInOrderTraversal());
+            Assert.assertSame(String.CASE_INSENSITIVE_ORDER, right.comparator());
+            try {
+                BALST.join(balst1, "m", "m", tree);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            // keys the comparator finds equal hash differently, so a write must not leave either cached
+            BALST<String,String> cached = new BALST<String,String>(String.CASE_INSENSITIVE_ORDER);
+            cached.setLookupCache(8);
+            cached.insert("abc", "x");
+            Assert.assertEquals("x", cached.get("ABC"));
+            Assert.assertEquals("x", cached.get("abc"));
+            cached.remove("abc");
+            Assert.assertEquals(0, cached.numKeys());
+            Assert.assertFalse(cached.contains("ABC"));
+            Assert.assertFalse(cached.contains("abc"));
+            cached.insert("Abc", "y");
+            Assert.assertEquals("y", cached.get("aBC"));
+
+            BALST<Integer,String> reversed = new BALST<Integer,String>(BALST.Balancing.RED_BLACK, Comparator.reverseOrder());
+            for (int i = 0; i < 100; i++)
+                reversed.insert(i, "v" + i);
+            reversed.verifyInvariants();
+            Assert.assertEquals(Integer.valueOf(99), reversed.getInOrderTraversal().get(0));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * The consuming set operations give the same trees as the copying ones
+     * and leave both inputs empty, while snapshots of a persistent input
+     * keep their keys.
+     */
+    @Test
+    void testBALST_028_consuming_set_operations() {
+        try {
+            for (BALST.SetOperation operation : new BALST.SetOperation[] {
+                    BALST.SetOperation.UNION, BALST.SetOperation.INTERSECTION, BALST.SetOperation.DIFFERENCE}) {
+                for (boolean persistent : new boolean[] {false, true}) {
+                    BALST<Integer,String> evens = new BALST<Integer,String>();
+                    BALST<Integer,String> threes = new BALST<Integer,String>();
+                    for (int i = 0; i < 30000; i += 2)
+                        evens.insert(i, "even");
+                    for (int i = 0; i < 30000; i += 3)
+                        threes.insert(i, "three");
+                    threes.setPersistent(persistent);
+                    BALST<Integer,String> snapshot = persistent ? threes.snapshot() : null;
+
+                    BALST<Integer,String> copied = BALST.combine(operation, evens, threes, false, ForkJoinPool.commonPool());
+                    BALST<Integer,String> consumed = BALST.combine(operation, evens, threes, true, ForkJoinPool.commonPool());
+                    consumed.verifyInvariants();
+                    Assert.assertEquals(copied.getInOrderTraversal(), consumed.getInOrderTraversal());
+                    Assert.assertEquals(copied.numKeys(), consumed.numKeys());
+                    Assert.assertEquals(0, evens.numKeys());
+                    Assert.assertEquals(0, threes.numKeys());
+                    Assert.assertNull(evens.getKeyAtRoot());
+                    Assert.assertNull(threes.getKeyAtRoot());
+
+                    // the result is an ordinary tree, and writing to it leaves any snapshot alone
+                    consumed.insert(30001, "new");
+                    consumed.remove(consumed.getKeyAtRoot());
+                    consumed.verifyInvariants();
+                    if (snapshot != null) {
+                        Assert.assertEquals(10000, snapshot.numKeys());
+                        snapshot.verifyInvariants();
+                    }
+                }
+            }
+            BALST<Integer,String> low = new BALST<Integer,String>();
+            BALST<Integer,String> high = new BALST<Integer,String>();
+            for (int i = 0; i < 10; i++) {
+                low.insert(i, "low");
+                high.insert(i + 5, "high");
+            }
+            Assert.assertEquals(List.of(0, 1, 2, 3, 4), BALST.differenceConsuming(low, high).getInOrderTraversal());
+            Assert.assertEquals(0, low.numKeys() + high.numKeys());
+            try {
+                BALST.unionConsuming(balst1, balst1);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception AVL 000: "+e.getMessage() );
+        }
+    }
+
     // Add tests to make sure that rebalancing occurs even if the
     // tree is larger.   Does it maintain it's balance?
     // Does the height of the tree reflect it's actual height
@@ -0,0 +1,724 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+/**
+ * BPlusTree is a B+tree implementation of BALSTADT for large key sets.
+ * Each node keeps up to fanOut keys in a sorted array, so a lookup in a
+ * tree of n keys visits about log(n) / log(fanOut / 2) nodes instead of the
+ * 1.44 log2(n) nodes of an AVL tree, and the keys it compares within a node
+ * sit next to each other in memory. Values live only in the leaves, which
+ * are linked left to right, so in-order scans never climb back up the tree.
+ * <p>
+ * The binary-tree methods of BALSTADT map onto the wide nodes as follows:
+ * getKeyAtRoot returns the first key of the root node, the child-of methods
+ * look at the inner node where key separates two children and return the
+ * first key of the child on that side (null if key separates nothing), and
+ * getHeight counts node levels. The pre-, post- and level-order traversals
+ * list the keys of each node as it is visited, so separator keys in inner
+ * nodes appear there in addition to the leaf keys; in-order lists each key
+ * once, from the leaf chain.
+ *
+ * @param <K> is the generic type of key
+ * @param <V> is the generic type of value
+ */
+public class BPlusTree<K extends Comparable<K>, V> implements BALSTADT<K, V>, Iterable<K> {
+
+    public static final int MIN_FAN_OUT = 16;
+
+    public static final int MAX_FAN_OUT = 256;
+
+    /**
+     * Keys are kept in keys[0..size). A leaf holds up to fanOut keys, an
+     * inner node up to fanOut - 1 keys and one more child than keys. Both
+     * arrays have room for one extra entry so a node can overflow by one
+     * before it is split.
+     */
+    private abstract static class Node {
+        int size;
+        final Object[] keys;
+
+        Node(int capacity) {
+            keys = new Object[capacity];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] values;
+        Leaf next;
+
+        Leaf(int fanOut) {
+            super(fanOut + 1);
+            values = new Object[fanOut + 1];
+        }
+    }
+
+    /**
+     * children[i] holds the keys smaller than keys[i]; children[i + 1] the
+     * keys greater than or equal to it.
+     */
+    private static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(int fanOut) {
+            super(fanOut);
+            children = new Node[fanOut + 1];
+        }
+    }
+
+    /**
+     * A node split in two: the new right node and the key that separates
+     * it from the left one.
+     */
+    private static final class Split {
+        final Object separator;
+        final Node right;
+
+        Split(Object separator, Node right) {
+            this.separator = separator;
+            this.right = right;
+        }
+    }
+
+    private final int fanOut;
+
+    private final int minLeafKeys;
+
+    private final int minInnerKeys;
+
+    private Node root;
+
+    private int numKeys;
+
+    private int height;
+
+    private int modCount;
+
+    /* where print() writes */
+    private final BALSTPrintSink printSink = new BALSTPrintSink();
+
+    public BPlusTree() {
+        this(64);
+    }
+
+    /**
+     * @param fanOut most children of an inner node and most keys in a leaf
+     * @throws IllegalArgumentException if fanOut is not in [16, 256]
+     */
+    public BPlusTree(int fanOut) {
+        if (fanOut < MIN_FAN_OUT || fanOut > MAX_FAN_OUT)
+            throw new IllegalArgumentException("fanOut must be in [" + MIN_FAN_OUT + ", " + MAX_FAN_OUT + "]: " + fanOut);
+        this.fanOut = fanOut;
+        minLeafKeys = fanOut / 2;
+        minInnerKeys = (fanOut + 1) / 2 - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Comparable<K>> int compare(K key, Object other) {
+        return key.compareTo((K) other);
+    }
+
+    /**
+     * @return the index of key in keys[0..size), or -(insertion point) - 1
+     */
+    private static <K extends Comparable<K>> int indexOf(Object[] keys, int size, K key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = compare(key, keys[mid]);
+            if (compare > 0)
+                low = mid + 1;
+            else if (compare < 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the index of the child of node that may hold key
+     */
+    private static <K extends Comparable<K>> int childIndex(Inner node, K key) {
+        int index = indexOf(node.keys, node.size, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * @return the leaf that holds key if it is in the tree
+     */
+    private Leaf leafFor(K key) {
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children[childIndex(inner, key)];
+        }
+        return (Leaf) node;
+    }
+
+    private Leaf firstLeaf() {
+        Node node = root;
+        while (node instanceof Inner)
+            node = ((Inner) node).children[0];
+        return (Leaf) node;
+    }
+
+    /**
+     * Returns the first key of the root node.
+     * If the tree is empty, returns null.
+     *
+     * @return key found at root node, or null
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public K getKeyAtRoot() {
+        return root == null ? null : (K) root.keys[0];
+    }
+
+    /**
+     * Finds the highest inner node in which key separates two children and
+     * returns the first key of the child left of it. Returns null if key is
+     * in the tree but separates no children.
+     *
+     * @param key A key to search for
+     * @return the first key of the child left of key
+     * @throws IllegalNullKeyException if key argument is null
+     * @throws KeyNotFoundException    if key is not found in this tree
+     */
+    @Override
+    public K getKeyOfLeftChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        return childOf(key, 0);
+    }
+
+    /**
+     * Finds the highest inner node in which key separates two children and
+     * returns the first key of the child right of it. Returns null if key is
+     * in the tree but separates no children.
+     *
+     * @param key A key to search for
+     * @return the first key of the child right of key
+     * @throws IllegalNullKeyException if key argument is null
+     * @throws KeyNotFoundException    if key is not found in this tree
+     */
+    @Override
+    public K getKeyOfRightChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        return childOf(key, 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K childOf(K key, int side) throws IllegalNullKeyException, KeyNotFoundException {
+        if (!contains(key))
+            throw new KeyNotFoundException();
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int index = indexOf(inner.keys, inner.size, key);
+            if (index >= 0)
+                return (K) inner.children[index + side].keys[0];
+            node = inner.children[-index - 1];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the height of this tree, the number of node levels, 0 if empty.
+     *
+     * @return the number of levels that contain keys
+     */
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the keys of the data structure in sorted order, read from the
+     * leaf chain.
+     *
+     * @return List of Keys in-order
+     */
+    @Override
+    public List<K> getInOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        for (K key : this)
+            list.add(key);
+        return list;
+    }
+
+    /**
+     * Returns the keys of every node, each node before its children.
+     *
+     * @return List of Keys in pre-order
+     */
+    @Override
+    public List<K> getPreOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        if (root != null)
+            preOrder(root, list);
+        return list;
+    }
+
+    private void preOrder(Node node, List<K> list) {
+        addKeys(node, list);
+        if (node instanceof Inner)
+            for (int i = 0; i <= node.size; i++)
+                preOrder(((Inner) node).children[i], list);
+    }
+
+    /**
+     * Returns the keys of every node, each node after its children.
+     *
+     * @return List of Keys in post-order
+     */
+    @Override
+    public List<K> getPostOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        if (root != null)
+            postOrder(root, list);
+        return list;
+    }
+
+    private void postOrder(Node node, List<K> list) {
+        if (node instanceof Inner)
+            for (int i = 0; i <= node.size; i++)
+                postOrder(((Inner) node).children[i], list);
+        addKeys(node, list);
+    }
+
+    /**
+     * Returns the keys of every node, level by level from the root.
+     *
+     * @return List of Keys in level-order
+     */
+    @Override
+    public List<K> getLevelOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        if (root != null)
+            queue.add(root);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            addKeys(node, list);
+            if (node instanceof Inner)
+                queue.addAll(Arrays.asList(((Inner) node).children).subList(0, node.size + 1));
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addKeys(Node node, List<K> list) {
+        for (int i = 0; i < node.size; i++)
+            list.add((K) node.keys[i]);
+    }
+
+    /**
+     * Returns an iterator over the keys in order that walks the leaf chain.
+     * The tree must not be changed while it is in use, or
+     * ConcurrentModificationException is thrown.
+     */
+    @Override
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+            private final int expectedModCount = modCount;
+            private Leaf leaf = firstLeaf();
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                return leaf != null && index < leaf.size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public K next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                K key = (K) leaf.keys[index++];
+                if (index == leaf.size) {
+                    leaf = leaf.next;
+                    index = 0;
+                }
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Add the key,value pair to the data structure and increase the number of keys.
+     * If key is null, throw IllegalNullKeyException;
+     * If key is already in data structure, throw DuplicateKeyException();
+     * Do not increase the num of keys in the structure, if key,value pair is not added.
+     */
+    @Override
+    public void insert(K key, V value) throws IllegalNullKeyException, DuplicateKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        if (root == null) {
+            root = new Leaf(fanOut);
+            height = 1;
+        }
+        Split split = insertHelper(root, key, value);
+        if (split != null) {
+            Inner newRoot = new Inner(fanOut);
+            newRoot.keys[0] = split.separator;
+            newRoot.children[0] = root;
+            newRoot.children[1] = split.right;
+            newRoot.size = 1;
+            root = newRoot;
+            height++;
+        }
+        numKeys++;
+        modCount++;
+    }
+
+    /**
+     * Inserts key,value below node, splitting every node on the way back up
+     * that overflows.
+     *
+     * @return the split of node, or null if it still fits
+     * @throws DuplicateKeyException if key is already in the subtree
+     */
+    private Split insertHelper(Node node, K key, V value) throws DuplicateKeyException {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = indexOf(leaf.keys, leaf.size, key);
+            if (index >= 0)
+                throw new DuplicateKeyException();
+            index = -index - 1;
+            insertAt(leaf.keys, leaf.size, index, key);
+            insertAt(leaf.values, leaf.size, index, value);
+            leaf.size++;
+            return leaf.size > fanOut ? splitLeaf(leaf) : null;
+        }
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, key);
+        Split split = insertHelper(inner.children[index], key, value);
+        if (split == null)
+            return null;
+        insertAt(inner.keys, inner.size, index, split.separator);
+        insertAt(inner.children, inner.size + 1, index + 1, split.right);
+        inner.size++;
+        return inner.size >= fanOut ? splitInner(inner) : null;
+    }
+
+    private static void insertAt(Object[] array, int length, int index, Object element) {
+        System.arraycopy(array, index, array, index + 1, length - index);
+        array[index] = element;
+    }
+
+    private static void removeAt(Object[] array, int length, int index) {
+        System.arraycopy(array, index + 1, array, index, length - index - 1);
+        array[length - 1] = null;
+    }
+
+    private Split splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf(fanOut);
+        int keep = leaf.size / 2;
+        right.size = leaf.size - keep;
+        System.arraycopy(leaf.keys, keep, right.keys, 0, right.size);
+        System.arraycopy(leaf.values, keep, right.values, 0, right.size);
+        Arrays.fill(leaf.keys, keep, leaf.size, null);
+        Arrays.fill(leaf.values, keep, leaf.size, null);
+        leaf.size = keep;
+        right.next = leaf.next;
+        leaf.next = right;
+        return new Split(right.keys[0], right);
+    }
+
+    /**
+     * Splits an inner node holding fanOut keys; the middle key moves up.
+     */
+    private Split splitInner(Inner inner) {
+        Inner right = new Inner(fanOut);
+        int middle = inner.size / 2;
+        Object separator = inner.keys[middle];
+        right.size = inner.size - middle - 1;
+        System.arraycopy(inner.keys, middle + 1, right.keys, 0, right.size);
+        System.arraycopy(inner.children, middle + 1, right.children, 0, right.size + 1);
+        Arrays.fill(inner.keys, middle, inner.size, null);
+        Arrays.fill(inner.children, middle + 1, inner.size + 1, null);
+        inner.size = middle;
+        return new Split(separator, right);
+    }
+
+    /**
+     * If key is found, remove the key,value pair from the data structure and decrease num keys.
+     * If key is not found, do not decrease the number of keys in the data structure.
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public boolean remove(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        if (root == null)
+            throw new KeyNotFoundException();
+        removeHelper(root, key);
+        if (root.size == 0) {
+            root = root instanceof Inner ? ((Inner) root).children[0] : null;
+            height--;
+        }
+        numKeys--;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Removes key below node and refills every child on the way back up
+     * that fell below half full, by borrowing from or merging with a sibling.
+     *
+     * @throws KeyNotFoundException if key is not in the subtree
+     */
+    private void removeHelper(Node node, K key) throws KeyNotFoundException {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = indexOf(leaf.keys, leaf.size, key);
+            if (index < 0)
+                throw new KeyNotFoundException();
+            removeAt(leaf.keys, leaf.size, index);
+            removeAt(leaf.values, leaf.size, index);
+            leaf.size--;
+            return;
+        }
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, key);
+        Node child = inner.children[index];
+        removeHelper(child, key);
+        if (child.size < (child instanceof Leaf ? minLeafKeys : minInnerKeys))
+            refill(inner, index);
+    }
+
+    /**
+     * Brings parent.children[index] back to half full.
+     */
+    private void refill(Inner parent, int index) {
+        int min = parent.children[index] instanceof Leaf ? minLeafKeys : minInnerKeys;
+        if (index > 0 && parent.children[index - 1].size > min)
+            borrowFromLeft(parent, index);
+        else if (index < parent.size && parent.children[index + 1].size > min)
+            borrowFromRight(parent, index);
+        else if (index > 0)
+            merge(parent, index - 1);
+        else
+            merge(parent, index);
+    }
+
+    private void borrowFromLeft(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node left = parent.children[index - 1];
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            Leaf from = (Leaf) left;
+            insertAt(leaf.keys, leaf.size, 0, from.keys[from.size - 1]);
+            insertAt(leaf.values, leaf.size, 0, from.values[from.size - 1]);
+            from.keys[from.size - 1] = null;
+            from.values[from.size - 1] = null;
+            parent.keys[index - 1] = leaf.keys[0];
+        } else {
+            Inner inner = (Inner) child;
+            Inner from = (Inner) left;
+            insertAt(inner.keys, inner.size, 0, parent.keys[index - 1]);
+            insertAt(inner.children, inner.size + 1, 0, from.children[from.size]);
+            parent.keys[index - 1] = from.keys[from.size - 1];
+            from.keys[from.size - 1] = null;
+            from.children[from.size] = null;
+        }
+        child.size++;
+        left.size--;
+    }
+
+    private void borrowFromRight(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            Leaf from = (Leaf) right;
+            leaf.keys[leaf.size] = from.keys[0];
+            leaf.values[leaf.size] = from.values[0];
+            removeAt(from.keys, from.size, 0);
+            removeAt(from.values, from.size, 0);
+            parent.keys[index] = from.keys[0];
+        } else {
+            Inner inner = (Inner) child;
+            Inner from = (Inner) right;
+            inner.keys[inner.size] = parent.keys[index];
+            inner.children[inner.size + 1] = from.children[0];
+            parent.keys[index] = from.keys[0];
+            removeAt(from.keys, from.size, 0);
+            removeAt(from.children, from.size + 1, 0);
+        }
+        child.size++;
+        right.size--;
+    }
+
+    /**
+     * Moves parent.children[index + 1] into parent.children[index] and
+     * drops the separator between them.
+     */
+    private void merge(Inner parent, int index) {
+        Node left = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (left instanceof Leaf) {
+            Leaf leaf = (Leaf) left;
+            Leaf from = (Leaf) right;
+            System.arraycopy(from.keys, 0, leaf.keys, leaf.size, from.size);
+            System.arraycopy(from.values, 0, leaf.values, leaf.size, from.size);
+            leaf.size += from.size;
+            leaf.next = from.next;
+        } else {
+            Inner inner = (Inner) left;
+            Inner from = (Inner) right;
+            inner.keys[inner.size] = parent.keys[index];
+            System.arraycopy(from.keys, 0, inner.keys, inner.size + 1, from.size);
+            System.arraycopy(from.children, 0, inner.children, inner.size + 1, from.size + 1);
+            inner.size += from.size + 1;
+        }
+        removeAt(parent.keys, parent.size, index);
+        removeAt(parent.children, parent.size + 1, index + 1);
+        parent.size--;
+    }
+
+    /**
+     * Returns the value associated with the specified key
+     * <p>
+     * Does not remove key or decrease number of keys
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        if (root == null)
+            throw new KeyNotFoundException();
+        Leaf leaf = leafFor(key);
+        int index = indexOf(leaf.keys, leaf.size, key);
+        if (index < 0)
+            throw new KeyNotFoundException();
+        return (V) leaf.values[index];
+    }
+
+    /**
+     * Returns true if the key is in the data structure
+     * If key is null, throw IllegalNullKeyException
+     * Returns false if key is null or not present
+     */
+    @Override
+    public boolean contains(K key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        if (root == null)
+            return false;
+        Leaf leaf = leafFor(key);
+        return indexOf(leaf.keys, leaf.size, key) >= 0;
+    }
+
+    /**
+     * Returns the number of key,value pairs in the data structure
+     */
+    @Override
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /**
+     * Checks every structural invariant in O(n): keys sorted within and
+     * between nodes, every node but the root at least half full, all
+     * leaves at the same depth and chained in order, and numKeys.
+     *
+     * @throws IllegalStateException describing the first violation found
+     */
+    public void verifyInvariants() {
+        int[] count = new int[1];
+        List<Leaf> leaves = new ArrayList<>();
+        if (root != null)
+            verifyNode(root, null, null, 1, count, leaves);
+        if (count[0] != numKeys)
+            throw new IllegalStateException("numKeys is " + numKeys + " but the leaves hold " + count[0]);
+        for (int i = 0; i < leaves.size(); i++)
+            if (leaves.get(i).next != (i + 1 < leaves.size() ? leaves.get(i + 1) : null))
+                throw new IllegalStateException("leaf chain is broken after leaf " + i);
+    }
+
+    private void verifyNode(Node node, K low, K high, int depth, int[] count, List<Leaf> leaves) {
+        if (node != root && node.size < (node instanceof Leaf ? minLeafKeys : minInnerKeys))
+            throw new IllegalStateException("node at depth " + depth + " is less than half full");
+        for (int i = 0; i < node.size; i++) {
+            @SuppressWarnings("unchecked")
+            K key = (K) node.keys[i];
+            if ((low != null && key.compareTo(low) < 0) || (high != null && key.compareTo(high) >= 0)
+                    || (i > 0 && compare(key, node.keys[i - 1]) <= 0))
+                throw new IllegalStateException(key + " is out of order");
+        }
+        if (node instanceof Leaf) {
+            if (depth != height)
+                throw new IllegalStateException("leaf at depth " + depth + " in a tree of height " + height);
+            count[0] += node.size;
+            leaves.add((Leaf) node);
+            return;
+        }
+        Inner inner = (Inner) node;
+        for (int i = 0; i <= inner.size; i++) {
+            @SuppressWarnings("unchecked")
+            K childLow = i == 0 ? low : (K) inner.keys[i - 1];
+            @SuppressWarnings("unchecked")
+            K childHigh = i == inner.size ? high : (K) inner.keys[i];
+            verifyNode(inner.children[i], childLow, childHigh, depth + 1, count, leaves);
+        }
+    }
+
+    /**
+     * Print the tree one level per line, each node's keys in brackets.
+     */
+    @Override
+    public void print() {
+        StringBuilder text = new StringBuilder();
+        if (root == null)
+            text.append("Tree does not exist").append(System.lineSeparator());
+        List<Node> level = root == null ? new ArrayList<>() : List.of(root);
+        while (!level.isEmpty()) {
+            List<Node> next = new ArrayList<>();
+            for (Node node : level) {
+                text.append('[');
+                for (int i = 0; i < node.size; i++)
+                    text.append(i == 0 ? "" : " ").append(node.keys[i]);
+                text.append("]  ");
+                if (node instanceof Inner)
+                    next.addAll(Arrays.asList(((Inner) node).children).subList(0, node.size + 1));
+            }
+            text.append(System.lineSeparator());
+            level = next;
+        }
+        printSink.print(text);
+    }
+
+    /**
+     * Sets where print() writes the tree. The tree is always rendered into a
+     * buffer first and handed to the sink with a single append.
+     *
+     * @param sink destination of print(), System.out by default
+     */
+    public void setPrintSink(Appendable sink) {
+        setPrintSink(sink, null);
+    }
+
+    /**
+     * Sets where print() writes the tree and which executor performs the
+     * write. The tree is rendered on the calling thread, so only the I/O is
+     * moved off it. A null executor writes on the calling thread.
+     *
+     * @param sink     destination of print()
+     * @param executor runs the writes, or null
+     */
+    public void setPrintSink(Appendable sink, Executor executor) {
+        printSink.set(sink, executor);
+    }
+}
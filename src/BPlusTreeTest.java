@@ -0,0 +1,139 @@
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BPlusTreeTest {
+
+    BPlusTree<Integer,String> tree;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeEach
+    void setUp() throws Exception {
+        tree = new BPlusTree<Integer,String>(16);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @AfterEach
+    void tearDown() throws Exception {
+        tree = null;
+    }
+
+    /**
+     * The BALSTADT methods map onto the wide nodes: a split root holds the
+     * separator, whose children start with the keys either side of it.
+     */
+    @Test
+    void testBPlusTree_001_structure() {
+        try {
+            Assert.assertNull(tree.getKeyAtRoot());
+            Assert.assertEquals(0, tree.getHeight());
+            for (int i = 1; i <= 16; i++)
+                tree.insert(i, "" + i);
+            Assert.assertEquals(1, tree.getHeight());
+            Assert.assertEquals(Integer.valueOf(1), tree.getKeyAtRoot());
+            Assert.assertNull(tree.getKeyOfLeftChildOf(5));
+
+            // The 17th key splits the leaf in two, 1..8 and 9..17.
+            tree.insert(17, "17");
+            Assert.assertEquals(2, tree.getHeight());
+            Assert.assertEquals(Integer.valueOf(9), tree.getKeyAtRoot());
+            Assert.assertEquals(Integer.valueOf(1), tree.getKeyOfLeftChildOf(9));
+            Assert.assertEquals(Integer.valueOf(9), tree.getKeyOfRightChildOf(9));
+            Assert.assertNull(tree.getKeyOfRightChildOf(3));
+            Assert.assertEquals(17, tree.getInOrderTraversal().size());
+            List<Integer> preOrder = new ArrayList<>(Arrays.asList(9));
+            for (int i = 1; i <= 17; i++)
+                preOrder.add(i);
+            Assert.assertEquals(preOrder, tree.getPreOrderTraversal());
+            Assert.assertEquals(preOrder, tree.getLevelOrderTraversal());
+            Assert.assertEquals(Integer.valueOf(9), tree.getPostOrderTraversal().get(17));
+
+            try {
+                tree.getKeyOfLeftChildOf(100);
+                fail("Expected KeyNotFoundException");
+            } catch (KeyNotFoundException expected) { }
+            try {
+                tree.insert(9, "again");
+                fail("Expected DuplicateKeyException");
+            } catch (DuplicateKeyException expected) { }
+            try {
+                tree.remove(100);
+                fail("Expected KeyNotFoundException");
+            } catch (KeyNotFoundException expected) { }
+            try {
+                tree.get(null);
+                fail("Expected IllegalNullKeyException");
+            } catch (IllegalNullKeyException expected) { }
+            try {
+                new BPlusTree<Integer,String>(8);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) { }
+            Assert.assertEquals(17, tree.numKeys());
+            tree.verifyInvariants();
+
+            for (int i = 1; i <= 17; i++)
+                tree.remove(i);
+            Assert.assertEquals(0, tree.numKeys());
+            Assert.assertEquals(0, tree.getHeight());
+            Assert.assertNull(tree.getKeyAtRoot());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception AVL 000: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Random inserts and removes at every fan-out agree with TreeMap and
+     * keep the tree balanced and at least half full.
+     */
+    @Test
+    void testBPlusTree_002_random_against_TreeMap() {
+        try {
+            for (int fanOut : new int[] {16, 17, 64, 256}) {
+                BPlusTree<Integer,String> tree = new BPlusTree<Integer,String>(fanOut);
+                TreeMap<Integer,String> expected = new TreeMap<Integer,String>();
+                Random random = new Random(fanOut);
+                for (int i = 0; i < 40000; i++) {
+                    int key = random.nextInt(5000);
+                    if (random.nextInt(3) == 0) {
+                        Assert.assertEquals(expected.containsKey(key), tree.contains(key));
+                        if (expected.remove(key) != null)
+                            tree.remove(key);
+                    } else if (!expected.containsKey(key)) {
+                        expected.put(key, "" + i);
+                        tree.insert(key, "" + i);
+                    }
+                    if (i % 2000 == 0)
+                        tree.verifyInvariants();
+                }
+                tree.verifyInvariants();
+                Assert.assertEquals(expected.size(), tree.numKeys());
+                Assert.assertEquals(new ArrayList<>(expected.keySet()), tree.getInOrderTraversal());
+                for (Integer key : expected.keySet())
+                    Assert.assertEquals(expected.get(key), tree.get(key));
+
+                // Removing everything in key order drains the leftmost leaves first.
+                for (Integer key : expected.keySet())
+                    tree.remove(key);
+                tree.verifyInvariants();
+                Assert.assertEquals(0, tree.numKeys());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception AVL 000: "+e.getMessage());
+        }
+    }
+}
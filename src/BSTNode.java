@@ -15,13 +15,15 @@
 // Classes that use this type:  <TODO, list which if any classes use this type>
 class BSTNode<K,V> {
 
-    K key;
+    final K key;
     V value;
     BSTNode<K,V> left;
     BSTNode<K,V> right;
     int balanceFactor;
     int height;
-    boolean removed = false;
+    int size; // live nodes in this subtree
+    int rank; // red-black or WAVL rank, or treap priority; unused by AVL
+    boolean removed = false; // tombstone, only set when BALST uses lazy deletion
 
 
     /**
@@ -35,10 +37,25 @@ class BSTNode<K,V> {
         this.value = value;
         this.left = leftChild;
         this.right = rightChild;
-        this.height = 0;
+        this.height = 1;
+        this.size = 1;
         this.balanceFactor = 0;
     }
 
     BSTNode(K key, V value) { this(key,value,null,null); }
 
+    /**
+     * Copies every field of node, used when a tree must not change node itself.
+     *
+     * @param node
+     */
+    BSTNode(BSTNode<K,V> node) {
+        this(node.key, node.value, node.left, node.right);
+        this.height = node.height;
+        this.size = node.size;
+        this.balanceFactor = node.balanceFactor;
+        this.rank = node.rank;
+        this.removed = node.removed;
+    }
+
 }
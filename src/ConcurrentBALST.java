@@ -0,0 +1,315 @@
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * ConcurrentBALST is a thread-safe AVL tree. Lookups run without locks:
+ * they walk the tree under an optimistic stamp and only fall back to a
+ * read lock if a writer got in the way several times. Writers are
+ * serialized by the write lock and rebalance exactly like BALST.
+ * <p>
+ * There is a single write lock for the whole tree, not one per node, so
+ * writes never run in parallel: throughput of a write-heavy mix stays at
+ * that of one writer however many threads share the tree, and a lookup
+ * that keeps losing its stamp to writers ends up waiting on them in the
+ * read lock. A map whose writers must scale across cores needs finer
+ * locking, as in ConcurrentSkipListMap.
+ *
+ * @param <K> is the generic type of key
+ * @param <V> is the generic type of value
+ */
+public class ConcurrentBALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
+
+    /* optimistic attempts before a lookup takes the read lock */
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+
+    /* a walk longer than any AVL height means we followed links mid-rotation */
+    private static final int MAX_STEPS = 128;
+
+    /* returned by walk when the links it followed cannot be trusted */
+    @SuppressWarnings("rawtypes")
+    private static final BSTNode RETRY = new BSTNode<>(null, null);
+
+    private final BALST<K, V> tree = new BALST<>();
+
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentBALST() {
+    }
+
+    /**
+     * Returns the key that is in the root node of this BST.
+     * If root is null, returns null.
+     *
+     * @return key found at root node, or null
+     */
+    @Override
+    public K getKeyAtRoot() {
+        long stamp = lock.tryOptimisticRead();
+        BSTNode<K, V> root = tree.getRootNode();
+        K key = root == null ? null : root.key;
+        if (lock.validate(stamp))
+            return key;
+        stamp = lock.readLock();
+        try {
+            return tree.getKeyAtRoot();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the returns the key that is in the left child.
+     * If the left child of the found node is null, returns null.
+     *
+     * @param key A key to search for
+     * @return The key that is in the left child of the found key
+     * @throws IllegalNullKeyException if key argument is null
+     * @throws KeyNotFoundException    if key is not found in this BST
+     */
+    @Override
+    public K getKeyOfLeftChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        long stamp = lock.readLock();
+        try {
+            return tree.getKeyOfLeftChildOf(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the returns the key that is in the right child.
+     * If the right child of the found node is null, returns null.
+     *
+     * @param key A key to search for
+     * @return The key that is in the right child of the found key
+     * @throws IllegalNullKeyException if key is null
+     * @throws KeyNotFoundException    if key is not found in this BST
+     */
+    @Override
+    public K getKeyOfRightChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        long stamp = lock.readLock();
+        try {
+            return tree.getKeyOfRightChildOf(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the height of this BST.
+     *
+     * @return the number of levels that contain keys in this BINARY SEARCH TREE
+     */
+    @Override
+    public int getHeight() {
+        long stamp = lock.readLock();
+        try {
+            return tree.getHeight();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the keys of the data structure in sorted order.
+     *
+     * @return List of Keys in-order
+     */
+    @Override
+    public List<K> getInOrderTraversal() {
+        long stamp = lock.readLock();
+        try {
+            return tree.getInOrderTraversal();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the keys of the data structure in pre-order traversal order.
+     *
+     * @return List of Keys in pre-order
+     */
+    @Override
+    public List<K> getPreOrderTraversal() {
+        long stamp = lock.readLock();
+        try {
+            return tree.getPreOrderTraversal();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the keys of the data structure in post-order traversal order.
+     *
+     * @return List of Keys in post-order
+     */
+    @Override
+    public List<K> getPostOrderTraversal() {
+        long stamp = lock.readLock();
+        try {
+            return tree.getPostOrderTraversal();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the keys of the data structure in level-order traversal order.
+     *
+     * @return List of Keys in level-order
+     */
+    @Override
+    public List<K> getLevelOrderTraversal() {
+        long stamp = lock.readLock();
+        try {
+            return tree.getLevelOrderTraversal();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Add the key,value pair to the data structure and increase the number of keys.
+     * If key is null, throw IllegalNullKeyException;
+     * If key is already in data structure, throw DuplicateKeyException();
+     */
+    @Override
+    public void insert(K key, V value) throws IllegalNullKeyException, DuplicateKeyException {
+        long stamp = lock.writeLock();
+        try {
+            tree.insert(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * If key is found, remove the key,value pair from the data structure and decrease num keys.
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public boolean remove(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        long stamp = lock.writeLock();
+        try {
+            return tree.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the value associated with the specified key
+     * <p>
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public V get(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0)
+                continue;
+            BSTNode<K, V> node = walk(key);
+            V value = node == null ? null : node.value;
+            boolean found = node != null && !node.removed;
+            if (node != RETRY && lock.validate(stamp)) {
+                if (!found)
+                    throw new KeyNotFoundException();
+                return value;
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns true if the key is in the data structure
+     * If key is null, throw IllegalNullKeyException
+     * Returns false if key is not null and is not present
+     */
+    @Override
+    public boolean contains(K key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0)
+                continue;
+            BSTNode<K, V> node = walk(key);
+            boolean found = node != null && !node.removed;
+            if (node != RETRY && lock.validate(stamp))
+                return found;
+        }
+        long stamp = lock.readLock();
+        try {
+            return tree.contains(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Walks from the root to key without taking any lock. The result is only
+     * meaningful if the caller's stamp still validates afterwards.
+     *
+     * @param key non-null key to search for
+     * @return the node holding key, null if there is none, or RETRY
+     */
+    @SuppressWarnings("unchecked")
+    private BSTNode<K, V> walk(K key) {
+        BSTNode<K, V> node = tree.getRootNode();
+        for (int steps = 0; node != null; steps++) {
+            if (steps == MAX_STEPS)
+                return RETRY;
+            int compare = key.compareTo(node.key);
+            if (compare < 0)
+                node = node.left;
+            else if (compare > 0)
+                node = node.right;
+            else
+                return node;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of key,value pairs in the data structure
+     */
+    @Override
+    public int numKeys() {
+        long stamp = lock.tryOptimisticRead();
+        int numKeys = tree.numKeys();
+        if (lock.validate(stamp))
+            return numKeys;
+        stamp = lock.readLock();
+        try {
+            return tree.numKeys();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Print the tree, see BALST.print().
+     */
+    @Override
+    public void print() {
+        long stamp = lock.readLock();
+        try {
+            tree.print();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentBALSTTest {
+
+    ConcurrentBALST<Integer,String> tree;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeEach
+    void setUp() throws Exception {
+        tree = new ConcurrentBALST<Integer,String>();
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @AfterEach
+    void tearDown() throws Exception {
+        tree = null;
+    }
+
+    /**
+     * Single-threaded use must behave exactly like BALST.
+     */
+    @Test
+    void testConcurrentBALST_001_single_thread() {
+        try {
+            tree.insert(10, "10");
+            tree.insert(20, "20");
+            tree.insert(30, "30");
+            Assert.assertEquals(Integer.valueOf(20), tree.getKeyAtRoot());
+            Assert.assertEquals(Integer.valueOf(10), tree.getKeyOfLeftChildOf(20));
+            Assert.assertEquals("30", tree.get(30));
+            Assert.assertFalse(tree.contains(40));
+            Assert.assertTrue(tree.remove(20));
+            Assert.assertEquals(2, tree.numKeys());
+            try {
+                tree.get(20);
+                fail("get of a removed key did not throw");
+            } catch (KeyNotFoundException e) {
+                // expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Readers run lock-free while writers insert and remove odd keys. The
+     * even keys are never touched, so every reader must always find them.
+     */
+    @Test
+    void testConcurrentBALST_002_readers_see_stable_keys() {
+        try {
+            final int n = 10_000;
+            for (int i = 0; i < n; i += 2)
+                tree.insert(i, "" + i);
+            Thread[] threads = new Thread[4];
+            final boolean[] failed = new boolean[threads.length];
+            for (int t = 0; t < threads.length; t++) {
+                final int id = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int round = 0; round < 20; round++)
+                            for (int i = 0; i < n; i++) {
+                                if (id < 2) {
+                                    if (i % 2 == 0 && !("" + i).equals(tree.get(i)))
+                                        failed[id] = true;
+                                } else if (i % 4 == 2 * (id - 2) + 1) {
+                                    if (tree.contains(i))
+                                        tree.remove(i);
+                                    else
+                                        tree.insert(i, "" + i);
+                                }
+                            }
+                    } catch (Exception e) {
+                        failed[id] = true;
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            for (boolean f : failed)
+                Assert.assertFalse(f);
+            List<Integer> keys = tree.getInOrderTraversal();
+            Assert.assertEquals(tree.numKeys(), keys.size());
+            Assert.assertEquals(n / 2, tree.numKeys());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+}
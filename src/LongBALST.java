@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LongBALST is an AVL tree keyed by primitive longs. Instead of BSTNode
+ * objects it keeps every node in parallel arrays indexed by node number:
+ * the key, the value, the two child indexes and the height. Index 0 is the
+ * empty subtree, and slots freed by remove are chained into a free list
+ * through the left array and reused by later inserts.
+ * <p>
+ * The long methods never box. The BALSTADT methods take and return Long
+ * so the tree can stand in for a BALST&lt;Long, V&gt;. Everything that does
+ * not look at keys is shared with IntBALST through PrimitiveBALST.
+ *
+ * @param <V> is the generic type of value
+ */
+public class LongBALST<V> extends PrimitiveBALST<Long, V> {
+
+    private long[] keys;
+
+    public LongBALST() {
+        this(16);
+    }
+
+    /**
+     * @param capacity number of keys to make room for up front
+     */
+    public LongBALST(int capacity) {
+        super(capacity);
+        keys = new long[capacity + 1];
+    }
+
+    @Override
+    Long key(int node) {
+        return keys[node];
+    }
+
+    @Override
+    int find(Long key) {
+        return search(key);
+    }
+
+    @Override
+    void growKeys(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+    }
+
+    /**
+     * Returns the keys of the data structure in sorted order.
+     *
+     * @return List of Keys in-order
+     */
+    @Override
+    public List<Long> getInOrderTraversal() {
+        List<Long> list = new ArrayList<>(numKeys);
+        for (long key : toSortedArray())
+            list.add(key);
+        return list;
+    }
+
+    /**
+     * Returns the keys in sorted order without boxing them.
+     *
+     * @return a new array holding every key in order
+     */
+    public long[] toSortedArray() {
+        long[] result = new long[numKeys];
+        int[] stack = new int[height[root] + 1];
+        int size = 0;
+        int count = 0;
+        int node = root;
+        while (node != NIL || size > 0) {
+            for (; node != NIL; node = left[node])
+                stack[size++] = node;
+            node = stack[--size];
+            result[count++] = keys[node];
+            node = right[node];
+        }
+        return result;
+    }
+
+    /**
+     * Add the key,value pair to the data structure and increase the number of keys.
+     * If key is null, throw IllegalNullKeyException;
+     * If key is already in data structure, throw DuplicateKeyException();
+     */
+    @Override
+    public void insert(Long key, V value) throws IllegalNullKeyException, DuplicateKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        insert(key.longValue(), value);
+    }
+
+    /**
+     * Adds the key,value pair without boxing the key.
+     *
+     * @param key
+     * @param value
+     * @throws DuplicateKeyException if key is already in the tree
+     */
+    public void insert(long key, V value) throws DuplicateKeyException {
+        root = insertHelper(root, key, value);
+    }
+
+    /**
+     * @param node
+     * @param key
+     * @param value
+     * @return the new root of the subtree
+     * @throws DuplicateKeyException
+     */
+    private int insertHelper(int node, long key, V value) throws DuplicateKeyException {
+        if (node == NIL) {
+            int leaf = allocate(value);
+            keys[leaf] = key;
+            return leaf;
+        }
+        // the arrays may be replaced while inserting below, so read them after the call
+        if (key > keys[node]) {
+            int child = insertHelper(right[node], key, value);
+            right[node] = child;
+        } else if (key < keys[node]) {
+            int child = insertHelper(left[node], key, value);
+            left[node] = child;
+        } else
+            throw new DuplicateKeyException();
+        return rebalance(node);
+    }
+
+    /**
+     * If key is found, remove the key,value pair from the data structure and decrease num keys.
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public boolean remove(Long key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        return remove(key.longValue());
+    }
+
+    /**
+     * Removes key without boxing it. The freed slot is reused by a later insert.
+     *
+     * @param key
+     * @return true
+     * @throws KeyNotFoundException if key is not in the tree
+     */
+    public boolean remove(long key) throws KeyNotFoundException {
+        root = removeHelper(root, key);
+        return true;
+    }
+
+    /**
+     * @param node
+     * @param key
+     * @return the new root of the subtree
+     * @throws KeyNotFoundException
+     */
+    private int removeHelper(int node, long key) throws KeyNotFoundException {
+        if (node == NIL)
+            throw new KeyNotFoundException();
+        if (key > keys[node])
+            right[node] = removeHelper(right[node], key);
+        else if (key < keys[node])
+            left[node] = removeHelper(left[node], key);
+        else {
+            int removed = node;
+            if (left[node] == NIL)
+                node = right[node];
+            else if (right[node] == NIL)
+                node = left[node];
+            else
+                node = replaceBySuccessor(node);
+            release(removed);
+            if (node == NIL)
+                return NIL;
+        }
+        return rebalance(node);
+    }
+
+    /**
+     * Returns the value associated with the specified key
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public V get(Long key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        return get(key.longValue());
+    }
+
+    /**
+     * @param key
+     * @return the value for key
+     * @throws KeyNotFoundException if key is not in the tree
+     */
+    public V get(long key) throws KeyNotFoundException {
+        int node = search(key);
+        if (node == NIL)
+            throw new KeyNotFoundException();
+        return value(node);
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value for key, or defaultValue if key is not in the tree
+     */
+    public V getOrDefault(long key, V defaultValue) {
+        int node = search(key);
+        return node == NIL ? defaultValue : value(node);
+    }
+
+    /**
+     * Returns true if the key is in the data structure
+     * If key is null, throw IllegalNullKeyException
+     */
+    @Override
+    public boolean contains(Long key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        return contains(key.longValue());
+    }
+
+    /**
+     * @param key
+     * @return true if key is in the tree
+     */
+    public boolean contains(long key) {
+        return search(key) != NIL;
+    }
+
+    /**
+     * @param key
+     * @return the node holding key, or NIL
+     */
+    private int search(long key) {
+        int node = root;
+        while (node != NIL) {
+            long nodeKey = keys[node];
+            if (key < nodeKey)
+                node = left[node];
+            else if (key > nodeKey)
+                node = right[node];
+            else
+                return node;
+        }
+        return NIL;
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * MappedBALST is an OffHeapBALST whose arena is a memory-mapped file, so a
+ * tree survives restarts and opens in O(1): open() only reads the header
+ * and maps the file, and get/contains are served straight from the mapping.
+ * <p>
+ * Writes are crash-safe through copy-on-write and a root swap. A write
+ * never changes a node reachable from the last committed root; it copies
+ * the nodes on its path instead. commit() forces those pages to disk and
+ * only then writes a new header naming the new root. There are two header
+ * slots, each with a sequence number and a checksum, and open() uses the
+ * newest valid one, so a crash at any point leaves the last committed tree.
+ * Nodes replaced by a write are recycled only after the commit that
+ * retires them; a write that fails, like an insert whose key the
+ * serializer rejects, frees its copies and retires nothing.
+ * <p>
+ * Free space that was on the free lists when the process crashed is not
+ * reused after the crash, because its links may have been overwritten by
+ * the interrupted write. A clean close() keeps it.
+ *
+ * @param <K> is the generic type of key
+ * @param <V> is the generic type of value
+ */
+public class MappedBALST<K extends Comparable<K>, V> extends OffHeapBALST<K, V> implements Closeable {
+
+    private static final long MAGIC = 0x42414c53544d4150L; // "BALSTMAP"
+
+    /* header slot layout, two slots at 0 and SLOT_SIZE */
+    private static final int SLOT_SIZE = 2048;
+    private static final int H_MAGIC = 0;
+    private static final int H_SEQUENCE = 8;
+    private static final int H_ROOT = 16;
+    private static final int H_NUM_KEYS = 24;
+    private static final int H_TOP = 32;
+    private static final int H_FREE_NODES = 40;
+    private static final int H_KEY_SIZE = 48;
+    private static final int H_CLEAN = 52;
+    private static final int H_FREE_BLOCKS = 56;
+
+    /**
+     * Maps chunk i of the file at offset i GiB and remembers every mapping
+     * so commit can force it.
+     */
+    private static final class MappedChunks implements OffHeapArena.ChunkSource {
+        final FileChannel channel;
+        final List<MappedByteBuffer> mapped = new ArrayList<>();
+
+        MappedChunks(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer chunk(int index, int capacity, ByteBuffer old) throws IOException {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, (long) index << OffHeapArena.CHUNK_SHIFT, capacity);
+            while (mapped.size() <= index)
+                mapped.add(null);
+            mapped.set(index, buffer);
+            return buffer;
+        }
+    }
+
+    private final MappedChunks chunks;
+
+    private final int keySize;
+
+    private long sequence;
+
+    private boolean autoCommit = true;
+
+    /* nodes written since the last commit; they may be changed in place */
+    private final Set<Long> fresh = new HashSet<>();
+
+    /* nodes to recycle once the next commit is durable, with or without their value */
+    private final List<Long> retiredNodes = new ArrayList<>();
+    private final List<Long> retiredEntries = new ArrayList<>();
+
+    /* copies made by the write in progress, freed again if it fails */
+    private final List<Long> copies = new ArrayList<>();
+
+    private MappedBALST(OffHeapSerializer<K> keySerializer, OffHeapSerializer<V> valueSerializer, MappedChunks chunks) {
+        super(keySerializer, valueSerializer, chunks);
+        this.chunks = chunks;
+        this.keySize = keySerializer.fixedSize();
+    }
+
+    /**
+     * Opens the tree stored in file, creating an empty one if the file does
+     * not exist or is empty. Only the header is read.
+     *
+     * @param file            the tree file
+     * @param keySerializer   fixed-size encoding of the keys, as used when the file was created
+     * @param valueSerializer encoding of the values, as used when the file was created
+     * @return the open tree
+     * @throws IOException if the file cannot be mapped or is not a tree file for these keys
+     */
+    public static <K extends Comparable<K>, V> MappedBALST<K, V> open(Path file, OffHeapSerializer<K> keySerializer,
+            OffHeapSerializer<V> valueSerializer) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean empty = channel.size() == 0;
+            MappedBALST<K, V> tree = new MappedBALST<>(keySerializer, valueSerializer, new MappedChunks(channel));
+            if (!empty)
+                tree.load();
+            // mark the file dirty before the first write can touch a free list
+            tree.writeHeader(false);
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets whether every insert and remove commits on its own (the default).
+     * With auto commit off, writes become durable together at the next
+     * commit() or close().
+     *
+     * @param autoCommit
+     */
+    public void setAutoCommit(boolean autoCommit) {
+        this.autoCommit = autoCommit;
+    }
+
+    @Override
+    public void insert(K key, V value) throws IllegalNullKeyException, DuplicateKeyException {
+        // check first so a failed write never leaves copies behind
+        if (contains(key))
+            throw new DuplicateKeyException();
+        int retired = retiredNodes.size();
+        int retiredWithValues = retiredEntries.size();
+        try {
+            super.insert(key, value);
+        } catch (RuntimeException e) {
+            // e.g. a key the serializer rejects, found only at the leaf
+            rollBack(retired, retiredWithValues);
+            throw e;
+        } finally {
+            copies.clear();
+        }
+        if (autoCommit)
+            commit();
+    }
+
+    @Override
+    public boolean remove(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (!contains(key))
+            throw new KeyNotFoundException();
+        int retired = retiredNodes.size();
+        int retiredWithValues = retiredEntries.size();
+        try {
+            super.remove(key);
+        } catch (RuntimeException e) {
+            rollBack(retired, retiredWithValues);
+            throw e;
+        } finally {
+            copies.clear();
+        }
+        if (autoCommit)
+            commit();
+        return true;
+    }
+
+    /**
+     * Undoes a write that failed before it could swap in its new root: the
+     * nodes it retired are still live, so they must not be recycled, and
+     * the copies it made are reachable from nowhere.
+     *
+     * @param retired           size of retiredNodes before the write
+     * @param retiredWithValues size of retiredEntries before the write
+     */
+    private void rollBack(int retired, int retiredWithValues) {
+        retiredNodes.subList(retired, retiredNodes.size()).clear();
+        retiredEntries.subList(retiredWithValues, retiredEntries.size()).clear();
+        for (long copy : copies) {
+            fresh.remove(copy);
+            super.release(copy, false);
+        }
+    }
+
+    /**
+     * Makes every write since the last commit durable: forces the new nodes
+     * to disk, then swaps in the new root by writing the other header slot,
+     * then recycles the nodes the writes replaced.
+     */
+    public void commit() {
+        for (MappedByteBuffer buffer : chunks.mapped)
+            if (buffer != null)
+                buffer.force();
+        writeHeader(false);
+        for (long node : retiredNodes)
+            super.release(node, false);
+        for (long node : retiredEntries)
+            super.release(node, true);
+        retiredNodes.clear();
+        retiredEntries.clear();
+        fresh.clear();
+    }
+
+    /**
+     * Commits, marks the file as cleanly closed and releases the file.
+     */
+    @Override
+    public void close() throws IOException {
+        commit();
+        writeHeader(true);
+        chunks.mapped.clear();
+        chunks.channel.close();
+    }
+
+    @Override
+    long edit(long node) {
+        if (fresh.contains(node))
+            return node;
+        long copy = copyNode(node);
+        fresh.add(copy);
+        copies.add(copy);
+        retiredNodes.add(node);
+        return copy;
+    }
+
+    @Override
+    void created(long node) {
+        fresh.add(node);
+    }
+
+    @Override
+    void release(long node, boolean freeValue) {
+        // the last committed tree may still point at node or its value
+        (freeValue ? retiredEntries : retiredNodes).add(node);
+    }
+
+    /**
+     * Writes the current root and allocator state to the older header slot
+     * and forces it, which is the atomic commit point.
+     *
+     * @param clean true only when closing
+     */
+    private void writeHeader(boolean clean) {
+        sequence++;
+        ByteBuffer buffer = arena.buffer(0);
+        int slot = (int) (sequence & 1) * SLOT_SIZE;
+        buffer.putLong(slot + H_MAGIC, MAGIC);
+        buffer.putLong(slot + H_SEQUENCE, sequence);
+        buffer.putLong(slot + H_ROOT, root);
+        buffer.putLong(slot + H_NUM_KEYS, numKeys);
+        buffer.putLong(slot + H_TOP, arena.top());
+        buffer.putLong(slot + H_FREE_NODES, arena.freeNodes());
+        buffer.putInt(slot + H_KEY_SIZE, keySize);
+        buffer.putInt(slot + H_CLEAN, clean ? 1 : 0);
+        int end = H_FREE_BLOCKS;
+        for (int i = 0; i < arena.numSizeClasses(); i++, end += 8)
+            buffer.putLong(slot + end, arena.freeBlocks(i));
+        buffer.putLong(slot + end, checksum(buffer, slot, end));
+        ((MappedByteBuffer) buffer).force(slot, SLOT_SIZE);
+    }
+
+    /**
+     * Restores root and allocator state from the newest valid header slot.
+     */
+    private void load() throws IOException {
+        ByteBuffer buffer = arena.buffer(0);
+        int end = H_FREE_BLOCKS + 8 * arena.numSizeClasses();
+        int best = -1;
+        for (int slot = 0; slot <= SLOT_SIZE; slot += SLOT_SIZE)
+            if (buffer.getLong(slot + H_MAGIC) == MAGIC
+                    && buffer.getLong(slot + end) == checksum(buffer, slot, end)
+                    && (best < 0 || buffer.getLong(slot + H_SEQUENCE) > buffer.getLong(best + H_SEQUENCE)))
+                best = slot;
+        if (best < 0)
+            throw new IOException("not a MappedBALST file, or both headers are damaged");
+        if (buffer.getInt(best + H_KEY_SIZE) != keySize)
+            throw new IOException("file was written with " + buffer.getInt(best + H_KEY_SIZE) + "-byte keys, not " + keySize);
+        sequence = buffer.getLong(best + H_SEQUENCE);
+        root = buffer.getLong(best + H_ROOT);
+        numKeys = (int) buffer.getLong(best + H_NUM_KEYS);
+        boolean clean = buffer.getInt(best + H_CLEAN) == 1;
+        long[] freeBlocks = new long[arena.numSizeClasses()];
+        if (clean)
+            for (int i = 0; i < freeBlocks.length; i++)
+                freeBlocks[i] = buffer.getLong(best + H_FREE_BLOCKS + 8 * i);
+        arena.restore(buffer.getLong(best + H_TOP), clean ? buffer.getLong(best + H_FREE_NODES) : NIL, freeBlocks);
+    }
+
+    private static long checksum(ByteBuffer buffer, int slot, int length) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < length; i++)
+            crc.update(buffer.get(slot + i));
+        return crc.getValue();
+    }
+}
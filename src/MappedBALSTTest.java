@@ -0,0 +1,144 @@
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MappedBALSTTest {
+
+    Path file;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("balst", ".map");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+        file = null;
+    }
+
+    /**
+     * A tree written, closed and reopened has the same shape and values.
+     */
+    @Test
+    void testMappedBALST_001_reopen() {
+        try {
+            BALST<Integer,String> reference = new BALST<Integer,String>();
+            MappedBALST<Integer,String> tree = MappedBALST.open(file, OffHeapSerializer.INT, OffHeapSerializer.STRING);
+            tree.setAutoCommit(false);
+            for (int i = 0; i < 5000; i++) {
+                tree.insert(i * 31 % 5003, "value " + i);
+                reference.insert(i * 31 % 5003, "value " + i);
+            }
+            tree.commit();
+            for (int i = 0; i < 5000; i += 3) {
+                tree.remove(i * 31 % 5003);
+                reference.remove(i * 31 % 5003);
+            }
+            tree.close();
+
+            tree = MappedBALST.open(file, OffHeapSerializer.INT, OffHeapSerializer.STRING);
+            Assert.assertEquals(reference.numKeys(), tree.numKeys());
+            Assert.assertEquals(reference.getPreOrderTraversal(), tree.getPreOrderTraversal());
+            for (int key : reference.getInOrderTraversal())
+                Assert.assertEquals(reference.get(key), tree.get(key));
+            tree.insert(-1, "after reopen");
+            Assert.assertEquals("after reopen", tree.get(-1));
+            tree.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Writes that were never committed are not seen after a crash, and the
+     * last committed tree is intact.
+     */
+    @Test
+    void testMappedBALST_002_crash_keeps_last_commit() {
+        try {
+            MappedBALST<Integer,String> tree = MappedBALST.open(file, OffHeapSerializer.INT, OffHeapSerializer.STRING);
+            for (int i = 0; i < 1000; i++)
+                tree.insert(i, "value " + i);
+            tree.setAutoCommit(false);
+            for (int i = 0; i < 1000; i += 2)
+                tree.remove(i);
+            for (int i = 1000; i < 2000; i++)
+                tree.insert(i, "value " + i);
+            // crash: no commit, no close
+
+            MappedBALST<Integer,String> reopened = MappedBALST.open(file, OffHeapSerializer.INT, OffHeapSerializer.STRING);
+            Assert.assertEquals(1000, reopened.numKeys());
+            Assert.assertEquals(10, reopened.getHeight());
+            for (int i = 0; i < 1000; i++)
+                Assert.assertEquals("value " + i, reopened.get(i));
+            Assert.assertFalse(reopened.contains(1000));
+            for (int i = 1000; i < 1100; i++)
+                reopened.insert(i, "again " + i);
+            for (int i = 0; i < 1000; i++)
+                Assert.assertEquals("value " + i, reopened.get(i));
+            Assert.assertEquals(1100, reopened.numKeys());
+            reopened.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * A key the serializer rejects leaves the tree as it was: the nodes
+     * copied on the way down are not recycled while still live, so later
+     * writes and a reopen see every key.
+     */
+    @Test
+    void testMappedBALST_003_rejected_key_keeps_tree() {
+        try {
+            BALST<String,String> reference = new BALST<String,String>();
+            OffHeapSerializer<String> keys = OffHeapSerializer.string(8);
+            MappedBALST<String,String> tree = MappedBALST.open(file, keys, OffHeapSerializer.STRING);
+            for (int i = 0; i < 100; i++) {
+                tree.insert("k" + i, "value " + i);
+                reference.insert("k" + i, "value " + i);
+            }
+            try {
+                tree.insert("a key of twenty bytes", "too long");
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) { }
+            tree.setAutoCommit(false);
+            try {
+                tree.insert("another key too long", "too long");
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) { }
+            for (int i = 100; i < 200; i++) {
+                tree.insert("k" + i, "value " + i);
+                reference.insert("k" + i, "value " + i);
+            }
+            tree.commit();
+            Assert.assertEquals(reference.getInOrderTraversal(), tree.getInOrderTraversal());
+            tree.close();
+
+            tree = MappedBALST.open(file, keys, OffHeapSerializer.STRING);
+            Assert.assertEquals(200, tree.numKeys());
+            Assert.assertEquals(reference.getPreOrderTraversal(), tree.getPreOrderTraversal());
+            for (String key : reference.getInOrderTraversal())
+                Assert.assertEquals(reference.get(key), tree.get(key));
+            tree.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Memory for OffHeapBALST: a growable address space made of ByteBuffer
+ * chunks of up to 1 GiB, with a free list for fixed-size node records and
+ * power-of-two size classes for values. Addresses are longs; address 0 is
+ * never handed out and the first HEADER_SIZE bytes are left to the owner.
+ * <p>
+ * Where the chunks come from is up to a ChunkSource, so the same arena
+ * works on direct buffers and on memory-mapped files.
+ */
+class OffHeapArena {
+
+    static final int CHUNK_SHIFT = 30;
+
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    static final int HEADER_SIZE = 4096;
+
+    /* smallest value block, enough to hold a free-list link */
+    private static final int MIN_CLASS = 4;
+
+    /**
+     * Supplies chunk storage.
+     */
+    interface ChunkSource {
+        /**
+         * Returns a buffer for chunk index of at least capacity bytes that
+         * starts with the contents of old (null for a new chunk).
+         */
+        ByteBuffer chunk(int index, int capacity, ByteBuffer old) throws IOException;
+    }
+
+    /** Direct, off-heap buffers that live as long as the arena. */
+    static final ChunkSource DIRECT = (index, capacity, old) -> {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        if (old != null)
+            buffer.put(0, old, 0, old.capacity());
+        return buffer;
+    };
+
+    private final ChunkSource source;
+
+    private final int nodeSize;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+
+    /* next address never handed out */
+    private long top = HEADER_SIZE;
+
+    private long freeNodes;
+
+    /* free value blocks of 2^i bytes */
+    private final long[] freeBlocks = new long[CHUNK_SHIFT + 1];
+
+    /**
+     * @param source   where chunk storage comes from
+     * @param nodeSize size of a node record, a multiple of 8 bytes
+     */
+    OffHeapArena(ChunkSource source, int nodeSize) {
+        this.source = source;
+        this.nodeSize = nodeSize;
+        ensure(top);
+    }
+
+    ByteBuffer buffer(long address) {
+        return chunks[(int) (address >>> CHUNK_SHIFT)];
+    }
+
+    static int offset(long address) {
+        return (int) address & (CHUNK_SIZE - 1);
+    }
+
+    long getLong(long address) {
+        return buffer(address).getLong(offset(address));
+    }
+
+    void putLong(long address, long value) {
+        buffer(address).putLong(offset(address), value);
+    }
+
+    int getInt(long address) {
+        return buffer(address).getInt(offset(address));
+    }
+
+    void putInt(long address, int value) {
+        buffer(address).putInt(offset(address), value);
+    }
+
+    byte getByte(long address) {
+        return buffer(address).get(offset(address));
+    }
+
+    void putByte(long address, byte value) {
+        buffer(address).put(offset(address), value);
+    }
+
+    /**
+     * @return address of a node record, recycled if one is free
+     */
+    long allocateNode() {
+        if (freeNodes != 0) {
+            long node = freeNodes;
+            freeNodes = getLong(node);
+            return node;
+        }
+        return bump(nodeSize);
+    }
+
+    void freeNode(long node) {
+        putLong(node, freeNodes);
+        freeNodes = node;
+    }
+
+    /**
+     * @param size bytes needed
+     * @return address of a block of at least size bytes
+     */
+    long allocate(int size) {
+        int sizeClass = sizeClass(size);
+        long block = freeBlocks[sizeClass];
+        if (block != 0) {
+            freeBlocks[sizeClass] = getLong(block);
+            return block;
+        }
+        return bump(1 << sizeClass);
+    }
+
+    /**
+     * @param block address returned by allocate
+     * @param size  the size passed to allocate
+     */
+    void free(long block, int size) {
+        int sizeClass = sizeClass(size);
+        putLong(block, freeBlocks[sizeClass]);
+        freeBlocks[sizeClass] = block;
+    }
+
+    private static int sizeClass(int size) {
+        if (size > CHUNK_SIZE)
+            throw new IllegalArgumentException("block larger than a chunk: " + size);
+        return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+    }
+
+    /**
+     * Hands out size fresh bytes, skipping to the next chunk if they would
+     * straddle a chunk boundary.
+     */
+    private long bump(int size) {
+        long address = top;
+        if ((address >>> CHUNK_SHIFT) != ((address + size - 1) >>> CHUNK_SHIFT))
+            address = ((address >>> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+        top = address + size;
+        ensure(top);
+        return address;
+    }
+
+    /**
+     * Makes sure every address below end is backed by a chunk, doubling
+     * the last chunk or adding new ones as needed.
+     */
+    private void ensure(long end) {
+        int last = (int) ((end - 1) >>> CHUNK_SHIFT);
+        try {
+            if (last >= chunks.length) {
+                int old = chunks.length;
+                chunks = Arrays.copyOf(chunks, last + 1);
+                // chunks before the last one are always full size
+                for (int i = Math.max(old - 1, 0); i < last; i++)
+                    chunks[i] = source.chunk(i, CHUNK_SIZE, chunks[i]);
+            }
+            int needed = offset(end - 1) + 1;
+            ByteBuffer chunk = chunks[last];
+            if (chunk == null || chunk.capacity() < needed) {
+                int capacity = chunk == null ? HEADER_SIZE * 16 : chunk.capacity();
+                while (capacity < needed)
+                    capacity = (int) Math.min((long) capacity * 2, CHUNK_SIZE);
+                chunks[last] = source.chunk(last, capacity, chunk);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* the allocator state, so a persistent owner can save and restore it */
+
+    long top() {
+        return top;
+    }
+
+    long freeNodes() {
+        return freeNodes;
+    }
+
+    long freeBlocks(int sizeClass) {
+        return freeBlocks[sizeClass];
+    }
+
+    int numSizeClasses() {
+        return freeBlocks.length;
+    }
+
+    void restore(long top, long freeNodes, long[] freeBlocks) {
+        this.top = top;
+        this.freeNodes = freeNodes;
+        System.arraycopy(freeBlocks, 0, this.freeBlocks, 0, this.freeBlocks.length);
+        ensure(top);
+    }
+}
@@ -0,0 +1,607 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * OffHeapBALST is an AVL tree whose nodes live outside the Java heap, in an
+ * OffHeapArena of direct buffers. Each node is a fixed-width record holding
+ * the child addresses, the address and size of the encoded value, the
+ * height and the encoded key; values are stored in separate blocks. The
+ * heap only holds this handle, so the garbage collector never has to scan
+ * the nodes. Removed nodes and values are recycled by later inserts.
+ * <p>
+ * Keys are decoded for every comparison, so the key serializer should be
+ * cheap. Behaviour otherwise matches BALST.
+ *
+ * @param <K> is the generic type of key
+ * @param <V> is the generic type of value
+ */
+public class OffHeapBALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
+
+    /* node record layout */
+    static final int LEFT = 0;
+    static final int RIGHT = 8;
+    static final int VALUE = 16;
+    static final int VALUE_SIZE = 24;
+    static final int HEIGHT = 28;
+    static final int KEY = 32;
+
+    /* address of the empty subtree */
+    static final long NIL = 0;
+
+    /* VALUE_SIZE of a null value */
+    private static final int NULL_VALUE = -1;
+
+    final OffHeapArena arena;
+
+    private final OffHeapSerializer<K> keySerializer;
+
+    private final OffHeapSerializer<V> valueSerializer;
+
+    long root = NIL;
+
+    int numKeys;
+
+    /* where print() writes */
+    private final BALSTPrintSink printSink = new BALSTPrintSink();
+
+    /**
+     * @param keySerializer   fixed-size encoding of the keys
+     * @param valueSerializer encoding of the values
+     */
+    public OffHeapBALST(OffHeapSerializer<K> keySerializer, OffHeapSerializer<V> valueSerializer) {
+        this(keySerializer, valueSerializer, OffHeapArena.DIRECT);
+    }
+
+    /**
+     * @param keySerializer   fixed-size encoding of the keys
+     * @param valueSerializer encoding of the values
+     * @param source          where the arena gets its chunks
+     */
+    OffHeapBALST(OffHeapSerializer<K> keySerializer, OffHeapSerializer<V> valueSerializer, OffHeapArena.ChunkSource source) {
+        if (keySerializer.fixedSize() < 0)
+            throw new IllegalArgumentException("keys need a fixed-size serializer");
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.arena = new OffHeapArena(source, (KEY + keySerializer.fixedSize() + 7) & ~7);
+    }
+
+    /**
+     * Returns the key that is in the root node of this BST.
+     * If root is null, returns null.
+     *
+     * @return key found at root node, or null
+     */
+    @Override
+    public K getKeyAtRoot() {
+        return root == NIL ? null : key(root);
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the returns the key that is in the left child.
+     * If the left child of the found node is null, returns null.
+     *
+     * @param key A key to search for
+     * @return The key that is in the left child of the found key
+     * @throws IllegalNullKeyException if key argument is null
+     * @throws KeyNotFoundException    if key is not found in this BST
+     */
+    @Override
+    public K getKeyOfLeftChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        long left = left(find(key));
+        return left == NIL ? null : key(left);
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the returns the key that is in the right child.
+     * If the right child of the found node is null, returns null.
+     *
+     * @param key A key to search for
+     * @return The key that is in the right child of the found key
+     * @throws IllegalNullKeyException if key is null
+     * @throws KeyNotFoundException    if key is not found in this BST
+     */
+    @Override
+    public K getKeyOfRightChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        long right = right(find(key));
+        return right == NIL ? null : key(right);
+    }
+
+    /**
+     * Returns the height of this BST, the number of levels that contain keys.
+     *
+     * @return the number of levels that contain keys in this BINARY SEARCH TREE
+     */
+    @Override
+    public int getHeight() {
+        return height(root);
+    }
+
+    /**
+     * Returns the keys of the data structure in sorted order.
+     *
+     * @return List of Keys in-order
+     */
+    @Override
+    public List<K> getInOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        long[] stack = new long[height(root) + 1];
+        int size = 0;
+        long node = root;
+        while (node != NIL || size > 0) {
+            for (; node != NIL; node = left(node))
+                stack[size++] = node;
+            node = stack[--size];
+            list.add(key(node));
+            node = right(node);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the keys of the data structure in pre-order traversal order.
+     *
+     * @return List of Keys in pre-order
+     */
+    @Override
+    public List<K> getPreOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        long[] stack = new long[height(root) + 1];
+        int size = 0;
+        if (root != NIL)
+            stack[size++] = root;
+        while (size > 0) {
+            long node = stack[--size];
+            list.add(key(node));
+            if (right(node) != NIL)
+                stack[size++] = right(node);
+            if (left(node) != NIL)
+                stack[size++] = left(node);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the keys of the data structure in post-order traversal order.
+     *
+     * @return List of Keys in post-order
+     */
+    @Override
+    public List<K> getPostOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        long[] stack = new long[height(root) + 1];
+        int size = 0;
+        long node = root;
+        long lastVisited = NIL;
+        while (node != NIL || size > 0) {
+            if (node != NIL) {
+                stack[size++] = node;
+                node = left(node);
+            } else {
+                long top = stack[size - 1];
+                if (right(top) != NIL && right(top) != lastVisited)
+                    node = right(top);
+                else {
+                    size--;
+                    list.add(key(top));
+                    lastVisited = top;
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the keys of the data structure in level-order traversal order.
+     *
+     * @return List of Keys in level-order
+     */
+    @Override
+    public List<K> getLevelOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        long[] queue = new long[numKeys];
+        int head = 0;
+        int tail = 0;
+        if (root != NIL)
+            queue[tail++] = root;
+        while (head < tail) {
+            long node = queue[head++];
+            list.add(key(node));
+            if (left(node) != NIL)
+                queue[tail++] = left(node);
+            if (right(node) != NIL)
+                queue[tail++] = right(node);
+        }
+        return list;
+    }
+
+    /**
+     * Add the key,value pair to the data structure and increase the number of keys.
+     * If key is null, throw IllegalNullKeyException;
+     * If key is already in data structure, throw DuplicateKeyException();
+     */
+    @Override
+    public void insert(K key, V value) throws IllegalNullKeyException, DuplicateKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        root = insertHelper(root, key, value);
+    }
+
+    /**
+     * @param node
+     * @param key
+     * @param value
+     * @return the new root of the subtree
+     * @throws DuplicateKeyException
+     */
+    long insertHelper(long node, K key, V value) throws DuplicateKeyException {
+        if (node == NIL)
+            return newNode(key, value);
+        int compare = key.compareTo(key(node));
+        if (compare == 0)
+            throw new DuplicateKeyException();
+        node = edit(node);
+        if (compare > 0)
+            setRight(node, insertHelper(right(node), key, value));
+        else
+            setLeft(node, insertHelper(left(node), key, value));
+        return rebalance(node);
+    }
+
+    /**
+     * If key is found, remove the key,value pair from the data structure and decrease num keys.
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public boolean remove(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        root = removeHelper(root, key);
+        return true;
+    }
+
+    /**
+     * @param node
+     * @param key
+     * @return the new root of the subtree
+     * @throws KeyNotFoundException
+     */
+    long removeHelper(long node, K key) throws KeyNotFoundException {
+        if (node == NIL)
+            throw new KeyNotFoundException();
+        int compare = key.compareTo(key(node));
+        if (compare > 0) {
+            node = edit(node);
+            setRight(node, removeHelper(right(node), key));
+        } else if (compare < 0) {
+            node = edit(node);
+            setLeft(node, removeHelper(left(node), key));
+        } else {
+            long removed = node;
+            if (left(node) == NIL)
+                node = right(node);
+            else if (right(node) == NIL)
+                node = left(node);
+            else {
+                // node with two children: move the inorder successor into its place
+                long successor = right(node);
+                while (left(successor) != NIL)
+                    successor = left(successor);
+                successor = edit(successor);
+                setRight(successor, removeSmallest(right(node)));
+                setLeft(successor, left(node));
+                node = successor;
+            }
+            release(removed, true);
+            numKeys--;
+            if (node == NIL)
+                return NIL;
+        }
+        return rebalance(node);
+    }
+
+    /**
+     * @param node
+     * @return the new root of the subtree without its smallest node
+     */
+    private long removeSmallest(long node) {
+        if (left(node) == NIL)
+            return right(node);
+        node = edit(node);
+        setLeft(node, removeSmallest(left(node)));
+        return rebalance(node);
+    }
+
+    /**
+     * Returns the value associated with the specified key
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public V get(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        return value(find(key));
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value for key, or defaultValue if key is not in the tree
+     * @throws IllegalNullKeyException if key is null
+     */
+    public V getOrDefault(K key, V defaultValue) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        long node = search(key);
+        return node == NIL ? defaultValue : value(node);
+    }
+
+    /**
+     * Returns true if the key is in the data structure
+     * If key is null, throw IllegalNullKeyException
+     */
+    @Override
+    public boolean contains(K key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        return search(key) != NIL;
+    }
+
+    /**
+     * @param key
+     * @return the node holding key
+     * @throws IllegalNullKeyException if key is null
+     * @throws KeyNotFoundException    if key is not in the tree
+     */
+    private long find(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        long node = search(key);
+        if (node == NIL)
+            throw new KeyNotFoundException();
+        return node;
+    }
+
+    /**
+     * @param key non-null key
+     * @return the node holding key, or NIL
+     */
+    private long search(K key) {
+        long node = root;
+        while (node != NIL) {
+            int compare = key.compareTo(key(node));
+            if (compare < 0)
+                node = left(node);
+            else if (compare > 0)
+                node = right(node);
+            else
+                return node;
+        }
+        return NIL;
+    }
+
+    /**
+     * Returns the number of key,value pairs in the data structure
+     */
+    @Override
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /**
+     * Print the tree one level per line, like BALST.print(), with missing
+     * children shown as X.
+     */
+    @Override
+    public void print() {
+        StringBuilder text = new StringBuilder();
+        if (root == NIL)
+            text.append("Tree does not exist");
+        long[] level = {root};
+        int count = root == NIL ? 0 : 1;
+        while (count > 0) {
+            long[] next = new long[2 * count];
+            int nextCount = 0;
+            boolean hasNode = false;
+            for (int i = 0; i < count; i++) {
+                long node = level[i];
+                text.append(node == NIL ? "X" : String.valueOf(key(node))).append("  ");
+                // a gap stays one X on every deeper level, as in BALST
+                if (node == NIL)
+                    next[nextCount++] = NIL;
+                else {
+                    next[nextCount++] = left(node);
+                    next[nextCount++] = right(node);
+                    hasNode |= left(node) != NIL || right(node) != NIL;
+                }
+            }
+            text.append(System.lineSeparator());
+            level = next;
+            count = hasNode ? nextCount : 0;
+        }
+        printSink.print(text);
+    }
+
+    /**
+     * Sets where print() writes the tree. The tree is always rendered into a
+     * buffer first and handed to the sink with a single append.
+     *
+     * @param sink destination of print(), System.out by default
+     */
+    public void setPrintSink(Appendable sink) {
+        setPrintSink(sink, null);
+    }
+
+    /**
+     * Sets where print() writes the tree and which executor performs the
+     * write. The tree is rendered on the calling thread, so only the I/O is
+     * moved off it. A null executor writes on the calling thread.
+     *
+     * @param sink     destination of print()
+     * @param executor runs the writes, or null
+     */
+    public void setPrintSink(Appendable sink, Executor executor) {
+        printSink.set(sink, executor);
+    }
+
+    /**
+     * Returns node itself, which may be changed in place. Subclasses that
+     * must not change reachable nodes return a copy instead.
+     *
+     * @param node
+     * @return a node safe to modify
+     */
+    long edit(long node) {
+        return node;
+    }
+
+    /**
+     * Frees the record of node, and its value block if freeValue is set.
+     *
+     * @param node
+     * @param freeValue
+     */
+    void release(long node, boolean freeValue) {
+        int size = arena.getInt(node + VALUE_SIZE);
+        if (freeValue && size != NULL_VALUE)
+            arena.free(arena.getLong(node + VALUE), size);
+        arena.freeNode(node);
+    }
+
+    /**
+     * @return a new leaf holding key and value
+     */
+    private long newNode(K key, V value) {
+        long node = arena.allocateNode();
+        setLeft(node, NIL);
+        setRight(node, NIL);
+        arena.putByte(node + HEIGHT, (byte) 1);
+        try {
+            keySerializer.write(key, arena.buffer(node), OffHeapArena.offset(node + KEY));
+        } catch (RuntimeException e) {
+            // a key the serializer rejects must not leak the record
+            arena.freeNode(node);
+            throw e;
+        }
+        if (value == null) {
+            arena.putLong(node + VALUE, NIL);
+            arena.putInt(node + VALUE_SIZE, NULL_VALUE);
+        } else {
+            int size = valueSerializer.size(value);
+            long block = arena.allocate(size);
+            try {
+                valueSerializer.write(value, arena.buffer(block), OffHeapArena.offset(block));
+            } catch (RuntimeException e) {
+                arena.free(block, size);
+                arena.freeNode(node);
+                throw e;
+            }
+            arena.putLong(node + VALUE, block);
+            arena.putInt(node + VALUE_SIZE, size);
+        }
+        numKeys++;
+        created(node);
+        return node;
+    }
+
+    /**
+     * Called for every new leaf. Subclasses that track which nodes the
+     * current write created can hook in here.
+     *
+     * @param node
+     */
+    void created(long node) {
+    }
+
+    /**
+     * @return a new node with the same contents as node, sharing its value block
+     */
+    long copyNode(long node) {
+        long copy = arena.allocateNode();
+        ByteBuffer from = arena.buffer(node);
+        ByteBuffer to = arena.buffer(copy);
+        to.put(OffHeapArena.offset(copy), from, OffHeapArena.offset(node), KEY + keySerializer.fixedSize());
+        return copy;
+    }
+
+    K key(long node) {
+        return keySerializer.read(arena.buffer(node), OffHeapArena.offset(node + KEY), keySerializer.fixedSize());
+    }
+
+    private V value(long node) {
+        int size = arena.getInt(node + VALUE_SIZE);
+        if (size == NULL_VALUE)
+            return null;
+        long block = arena.getLong(node + VALUE);
+        return valueSerializer.read(arena.buffer(block), OffHeapArena.offset(block), size);
+    }
+
+    long left(long node) {
+        return arena.getLong(node + LEFT);
+    }
+
+    long right(long node) {
+        return arena.getLong(node + RIGHT);
+    }
+
+    private void setLeft(long node, long child) {
+        arena.putLong(node + LEFT, child);
+    }
+
+    private void setRight(long node, long child) {
+        arena.putLong(node + RIGHT, child);
+    }
+
+    int height(long node) {
+        return node == NIL ? 0 : arena.getByte(node + HEIGHT);
+    }
+
+    private void update(long node) {
+        arena.putByte(node + HEIGHT, (byte) (1 + Math.max(height(left(node)), height(right(node)))));
+    }
+
+    /**
+     * Updates the height of node and fixes it with a single or double
+     * rotation if it is out of balance.
+     *
+     * @param node a node safe to modify
+     * @return the new root of the subtree
+     */
+    private long rebalance(long node) {
+        update(node);
+        int balanceFactor = height(left(node)) - height(right(node));
+        if (balanceFactor > 1) {
+            long leftChild = left(node);
+            if (height(left(leftChild)) < height(right(leftChild)))
+                setLeft(node, leftRotation(edit(leftChild)));
+            return rightRotation(node);
+        } else if (balanceFactor < -1) {
+            long rightChild = right(node);
+            if (height(right(rightChild)) < height(left(rightChild)))
+                setRight(node, rightRotation(edit(rightChild)));
+            return leftRotation(node);
+        }
+        return node;
+    }
+
+    private long rightRotation(long node) {
+        long leftChild = edit(left(node));
+        setLeft(node, right(leftChild));
+        setRight(leftChild, node);
+        update(node);
+        update(leftChild);
+        return leftChild;
+    }
+
+    private long leftRotation(long node) {
+        long rightChild = edit(right(node));
+        setRight(node, left(rightChild));
+        setLeft(rightChild, node);
+        update(node);
+        update(rightChild);
+        return rightChild;
+    }
+}
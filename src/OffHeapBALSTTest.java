@@ -0,0 +1,111 @@
+import static org.junit.Assert.fail;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OffHeapBALSTTest {
+
+    OffHeapBALST<Integer,String> tree;
+    BALST<Integer,String> reference;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeEach
+    void setUp() throws Exception {
+        tree = new OffHeapBALST<Integer,String>(OffHeapSerializer.INT, OffHeapSerializer.STRING);
+        reference = new BALST<Integer,String>();
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @AfterEach
+    void tearDown() throws Exception {
+        tree = null;
+        reference = null;
+    }
+
+    /**
+     * The same inserts and removes on OffHeapBALST and BALST must produce
+     * the same shape, printed tree and values.
+     */
+    @Test
+    void testOffHeapBALST_001_same_shape_as_BALST() {
+        try {
+            for (int i = 0; i < 20000; i++) {
+                tree.insert(i * 31 % 20011, "value " + i);
+                reference.insert(i * 31 % 20011, "value " + i);
+            }
+            for (int i = 0; i < 20000; i += 2) {
+                tree.remove(i * 31 % 20011);
+                reference.remove(i * 31 % 20011);
+            }
+            Assert.assertEquals(reference.numKeys(), tree.numKeys());
+            Assert.assertEquals(reference.getHeight(), tree.getHeight());
+            Assert.assertEquals(reference.getKeyAtRoot(), tree.getKeyAtRoot());
+            Assert.assertEquals(reference.getInOrderTraversal(), tree.getInOrderTraversal());
+            Assert.assertEquals(reference.getPreOrderTraversal(), tree.getPreOrderTraversal());
+            Assert.assertEquals(reference.getPostOrderTraversal(), tree.getPostOrderTraversal());
+            Assert.assertEquals(reference.getLevelOrderTraversal(), tree.getLevelOrderTraversal());
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            reference.setPrintSink(expected);
+            tree.setPrintSink(actual);
+            reference.print();
+            tree.print();
+            Assert.assertEquals(expected.toString(), actual.toString());
+            for (int key : reference.getInOrderTraversal())
+                Assert.assertEquals(reference.get(key), tree.get(key));
+            Assert.assertFalse(tree.contains(0));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Null values, empty values and fixed-width string keys round-trip,
+     * and removed slots are reused instead of growing the arena.
+     */
+    @Test
+    void testOffHeapBALST_002_string_keys_and_reuse() {
+        try {
+            OffHeapBALST<String,String> strings =
+                    new OffHeapBALST<String,String>(OffHeapSerializer.string(8), OffHeapSerializer.STRING);
+            strings.insert("aa", null);
+            strings.insert("bb", "");
+            strings.insert("cc", "three");
+            Assert.assertNull(strings.get("aa"));
+            Assert.assertEquals("", strings.get("bb"));
+            Assert.assertEquals("bb", strings.getKeyAtRoot());
+
+            // a key too long for the serializer frees its record for the next insert
+            try {
+                strings.insert("longer than eight", "x");
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            long used = strings.arena.top();
+            strings.insert("dd", null);
+            Assert.assertEquals(used, strings.arena.top());
+            Assert.assertEquals(4, strings.numKeys());
+
+            for (int i = 0; i < 1000; i++)
+                tree.insert(i, "v" + i);
+            for (int i = 0; i < 1000; i++)
+                tree.remove(i);
+            long top = tree.arena.top();
+            for (int i = 0; i < 1000; i++)
+                tree.insert(i, "w" + i);
+            Assert.assertEquals(top, tree.arena.top());
+            Assert.assertEquals("w999", tree.get(999));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes keys and values for OffHeapBALST. Reads and writes use absolute
+ * offsets into the given buffer and must not change its position.
+ * <p>
+ * Key serializers must have a fixed size, since keys are stored inline in
+ * the fixed-width node records. Value serializers may be variable sized.
+ *
+ * @param <T> the type encoded
+ */
+public interface OffHeapSerializer<T> {
+
+    /**
+     * @return the size of every encoding in bytes, or -1 if it varies
+     */
+    int fixedSize();
+
+    /**
+     * @param value
+     * @return the number of bytes write will use for value
+     */
+    int size(T value);
+
+    /**
+     * @param value  non-null value to encode
+     * @param buffer destination
+     * @param offset absolute offset in buffer
+     */
+    void write(T value, ByteBuffer buffer, int offset);
+
+    /**
+     * @param buffer source
+     * @param offset absolute offset in buffer
+     * @param size   number of bytes written for this value
+     * @return the decoded value
+     */
+    T read(ByteBuffer buffer, int offset, int size);
+
+    OffHeapSerializer<Integer> INT = new OffHeapSerializer<Integer>() {
+        public int fixedSize() { return 4; }
+
+        public int size(Integer value) { return 4; }
+
+        public void write(Integer value, ByteBuffer buffer, int offset) { buffer.putInt(offset, value); }
+
+        public Integer read(ByteBuffer buffer, int offset, int size) { return buffer.getInt(offset); }
+    };
+
+    OffHeapSerializer<Long> LONG = new OffHeapSerializer<Long>() {
+        public int fixedSize() { return 8; }
+
+        public int size(Long value) { return 8; }
+
+        public void write(Long value, ByteBuffer buffer, int offset) { buffer.putLong(offset, value); }
+
+        public Long read(ByteBuffer buffer, int offset, int size) { return buffer.getLong(offset); }
+    };
+
+    /** UTF-8 strings of any length, for values. */
+    OffHeapSerializer<String> STRING = new OffHeapSerializer<String>() {
+        public int fixedSize() { return -1; }
+
+        public int size(String value) { return value.getBytes(StandardCharsets.UTF_8).length; }
+
+        public void write(String value, ByteBuffer buffer, int offset) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; i++)
+                buffer.put(offset + i, bytes[i]);
+        }
+
+        public String read(ByteBuffer buffer, int offset, int size) {
+            byte[] bytes = new byte[size];
+            for (int i = 0; i < size; i++)
+                bytes[i] = buffer.get(offset + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Returns a fixed-size UTF-8 string serializer usable for keys: a two
+     * byte length followed by up to maxBytes bytes.
+     *
+     * @param maxBytes longest encoded key allowed
+     * @return the serializer
+     */
+    static OffHeapSerializer<String> string(int maxBytes) {
+        if (maxBytes < 0 || maxBytes > 0xFFFF)
+            throw new IllegalArgumentException("maxBytes must be in [0, 65535]: " + maxBytes);
+        return new OffHeapSerializer<String>() {
+            public int fixedSize() { return 2 + maxBytes; }
+
+            public int size(String value) { return 2 + maxBytes; }
+
+            public void write(String value, ByteBuffer buffer, int offset) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes)
+                    throw new IllegalArgumentException("key longer than " + maxBytes + " bytes: " + value);
+                buffer.putShort(offset, (short) bytes.length);
+                for (int i = 0; i < bytes.length; i++)
+                    buffer.put(offset + 2 + i, bytes[i]);
+            }
+
+            public String read(ByteBuffer buffer, int offset, int size) {
+                return STRING.read(buffer, offset + 2, buffer.getShort(offset) & 0xFFFF);
+            }
+        };
+    }
+}
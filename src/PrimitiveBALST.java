@@ -0,0 +1,406 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * PrimitiveBALST is the part of IntBALST and LongBALST that does not
+ * depend on the key type. Every node lives in parallel arrays indexed by
+ * node number: the value, the two child indexes and the height here, the
+ * key in an array of the subclass. Index 0 is the empty subtree, and slots
+ * freed by remove are chained into a free list through the left array and
+ * reused by later inserts.
+ * <p>
+ * Subclasses own the key array and every method that compares keys, so
+ * their searches never box. Balancing, slot management, traversals and
+ * print work on node indexes only.
+ *
+ * @param <K> is the boxed type of key
+ * @param <V> is the generic type of value
+ */
+abstract class PrimitiveBALST<K extends Comparable<K>, V> implements BALSTADT<K, V> {
+
+    /* index of the empty subtree; height[NIL] is always 0 */
+    static final int NIL = 0;
+
+    Object[] values;
+
+    int[] left;
+
+    int[] right;
+
+    /* an AVL tree of 2^31 nodes is less than 45 levels high */
+    byte[] height;
+
+    int root = NIL;
+
+    int numKeys;
+
+    /* first slot that was freed by remove, chained through left */
+    private int free = NIL;
+
+    /* slots [1, used) have been handed out at least once */
+    private int used = 1;
+
+    /* where print() writes */
+    private final BALSTPrintSink printSink = new BALSTPrintSink();
+
+    /**
+     * @param capacity number of keys to make room for up front
+     */
+    PrimitiveBALST(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative: " + capacity);
+        values = new Object[capacity + 1];
+        left = new int[capacity + 1];
+        right = new int[capacity + 1];
+        height = new byte[capacity + 1];
+    }
+
+    /**
+     * @param node
+     * @return the key of node, boxed
+     */
+    abstract K key(int node);
+
+    /**
+     * @param key
+     * @return the node holding key, or NIL
+     */
+    abstract int find(K key);
+
+    /**
+     * Resizes the key array along with the others.
+     *
+     * @param capacity
+     */
+    abstract void growKeys(int capacity);
+
+    /**
+     * Returns the key that is in the root node of this BST.
+     * If root is null, returns null.
+     *
+     * @return key found at root node, or null
+     */
+    @Override
+    public K getKeyAtRoot() {
+        return root == NIL ? null : key(root);
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the returns the key that is in the left child.
+     * If the left child of the found node is null, returns null.
+     *
+     * @param key A key to search for
+     * @return The key that is in the left child of the found key
+     * @throws IllegalNullKeyException if key argument is null
+     * @throws KeyNotFoundException    if key is not found in this BST
+     */
+    @Override
+    public K getKeyOfLeftChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        int node = find(key);
+        if (node == NIL)
+            throw new KeyNotFoundException();
+        return left[node] == NIL ? null : key(left[node]);
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the returns the key that is in the right child.
+     * If the right child of the found node is null, returns null.
+     *
+     * @param key A key to search for
+     * @return The key that is in the right child of the found key
+     * @throws IllegalNullKeyException if key is null
+     * @throws KeyNotFoundException    if key is not found in this BST
+     */
+    @Override
+    public K getKeyOfRightChildOf(K key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        int node = find(key);
+        if (node == NIL)
+            throw new KeyNotFoundException();
+        return right[node] == NIL ? null : key(right[node]);
+    }
+
+    /**
+     * Returns the height of this BST, the number of levels that contain keys.
+     *
+     * @return the number of levels that contain keys in this BINARY SEARCH TREE
+     */
+    @Override
+    public int getHeight() {
+        return height[root];
+    }
+
+    /**
+     * Returns the keys of the data structure in pre-order traversal order.
+     *
+     * @return List of Keys in pre-order
+     */
+    @Override
+    public List<K> getPreOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        int[] stack = new int[height[root] + 1];
+        int size = 0;
+        if (root != NIL)
+            stack[size++] = root;
+        while (size > 0) {
+            int node = stack[--size];
+            list.add(key(node));
+            if (right[node] != NIL)
+                stack[size++] = right[node];
+            if (left[node] != NIL)
+                stack[size++] = left[node];
+        }
+        return list;
+    }
+
+    /**
+     * Returns the keys of the data structure in post-order traversal order.
+     *
+     * @return List of Keys in post-order
+     */
+    @Override
+    public List<K> getPostOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        int[] stack = new int[height[root] + 1];
+        int size = 0;
+        int node = root;
+        int lastVisited = NIL;
+        while (node != NIL || size > 0) {
+            if (node != NIL) {
+                stack[size++] = node;
+                node = left[node];
+            } else {
+                int top = stack[size - 1];
+                if (right[top] != NIL && right[top] != lastVisited)
+                    node = right[top];
+                else {
+                    size--;
+                    list.add(key(top));
+                    lastVisited = top;
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the keys of the data structure in level-order traversal order.
+     *
+     * @return List of Keys in level-order
+     */
+    @Override
+    public List<K> getLevelOrderTraversal() {
+        List<K> list = new ArrayList<>(numKeys);
+        int[] queue = new int[numKeys];
+        int head = 0;
+        int tail = 0;
+        if (root != NIL)
+            queue[tail++] = root;
+        while (head < tail) {
+            int node = queue[head++];
+            list.add(key(node));
+            if (left[node] != NIL)
+                queue[tail++] = left[node];
+            if (right[node] != NIL)
+                queue[tail++] = right[node];
+        }
+        return list;
+    }
+
+    /**
+     * Returns the number of key,value pairs in the data structure
+     */
+    @Override
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /**
+     * Print the tree one level per line, like BALST.print(), with missing
+     * children shown as X.
+     */
+    @Override
+    public void print() {
+        StringBuilder text = new StringBuilder();
+        if (root == NIL)
+            text.append("Tree does not exist");
+        int[] level = {root};
+        int count = root == NIL ? 0 : 1;
+        while (count > 0) {
+            int[] next = new int[2 * count];
+            int nextCount = 0;
+            boolean hasNode = false;
+            for (int i = 0; i < count; i++) {
+                int node = level[i];
+                text.append(node == NIL ? "X" : String.valueOf(key(node))).append("  ");
+                // a gap stays one X on every deeper level, as in BALST
+                if (node == NIL)
+                    next[nextCount++] = NIL;
+                else {
+                    next[nextCount++] = left[node];
+                    next[nextCount++] = right[node];
+                    hasNode |= left[node] != NIL || right[node] != NIL;
+                }
+            }
+            text.append(System.lineSeparator());
+            level = next;
+            count = hasNode ? nextCount : 0;
+        }
+        printSink.print(text);
+    }
+
+    /**
+     * Sets where print() writes the tree. The tree is always rendered into a
+     * buffer first and handed to the sink with a single append.
+     *
+     * @param sink destination of print(), System.out by default
+     */
+    public void setPrintSink(Appendable sink) {
+        setPrintSink(sink, null);
+    }
+
+    /**
+     * Sets where print() writes the tree and which executor performs the
+     * write. The tree is rendered on the calling thread, so only the I/O is
+     * moved off it. A null executor writes on the calling thread.
+     *
+     * @param sink     destination of print()
+     * @param executor runs the writes, or null
+     */
+    public void setPrintSink(Appendable sink, Executor executor) {
+        printSink.set(sink, executor);
+    }
+
+    /**
+     * @param node
+     * @return the value of node
+     */
+    @SuppressWarnings("unchecked")
+    final V value(int node) {
+        return (V) values[node];
+    }
+
+    /**
+     * Takes a slot from the free list, or a fresh one, growing the arrays by
+     * half when they are full. The caller stores the key.
+     *
+     * @return index of a leaf holding value
+     */
+    final int allocate(V value) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        } else {
+            if (used == values.length)
+                grow();
+            node = used++;
+        }
+        values[node] = value;
+        left[node] = NIL;
+        right[node] = NIL;
+        height[node] = 1;
+        numKeys++;
+        return node;
+    }
+
+    /**
+     * Puts node on the free list and drops its value for the garbage collector.
+     *
+     * @param node
+     */
+    final void release(int node) {
+        values[node] = null;
+        right[node] = NIL;
+        left[node] = free;
+        free = node;
+        numKeys--;
+    }
+
+    private void grow() {
+        int capacity = values.length + (values.length >> 1) + 1;
+        growKeys(capacity);
+        values = Arrays.copyOf(values, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        height = Arrays.copyOf(height, capacity);
+    }
+
+    /**
+     * Unlinks node from the subtree below its right child and puts that
+     * subtree's smallest node in its place, for remove.
+     *
+     * @param node a node with two children
+     * @return the node that replaces it
+     */
+    final int replaceBySuccessor(int node) {
+        int successor = right[node];
+        while (left[successor] != NIL)
+            successor = left[successor];
+        right[successor] = removeSmallest(right[node]);
+        left[successor] = left[node];
+        return successor;
+    }
+
+    /**
+     * @param node
+     * @return the new root of the subtree without its smallest node
+     */
+    private int removeSmallest(int node) {
+        if (left[node] == NIL)
+            return right[node];
+        left[node] = removeSmallest(left[node]);
+        return rebalance(node);
+    }
+
+    /**
+     * Updates the height of node and fixes it with a single or double
+     * rotation if it is out of balance.
+     *
+     * @param node
+     * @return the new root of the subtree
+     */
+    final int rebalance(int node) {
+        update(node);
+        int balanceFactor = height[left[node]] - height[right[node]];
+        if (balanceFactor > 1) {
+            if (height[left[left[node]]] < height[right[left[node]]])
+                left[node] = leftRotation(left[node]);
+            return rightRotation(node);
+        } else if (balanceFactor < -1) {
+            if (height[right[right[node]]] < height[left[right[node]]])
+                right[node] = rightRotation(right[node]);
+            return leftRotation(node);
+        }
+        return node;
+    }
+
+    private void update(int node) {
+        height[node] = (byte) (1 + Math.max(height[left[node]], height[right[node]]));
+    }
+
+    private int rightRotation(int node) {
+        int leftChild = left[node];
+        left[node] = right[leftChild];
+        right[leftChild] = node;
+        update(node);
+        update(leftChild);
+        return leftChild;
+    }
+
+    private int leftRotation(int node) {
+        int rightChild = right[node];
+        right[node] = left[rightChild];
+        left[rightChild] = node;
+        update(node);
+        update(rightChild);
+        return rightChild;
+    }
+}
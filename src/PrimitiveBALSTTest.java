@@ -0,0 +1,181 @@
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PrimitiveBALSTTest {
+
+    IntBALST<String> ints;
+    LongBALST<String> longs;
+    BALST<Integer,String> reference;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeEach
+    void setUp() throws Exception {
+        ints = new IntBALST<String>(4);
+        longs = new LongBALST<String>();
+        reference = new BALST<Integer,String>();
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @AfterEach
+    void tearDown() throws Exception {
+        ints = null;
+        longs = null;
+        reference = null;
+    }
+
+    /**
+     * The same inserts and removes on IntBALST and BALST must produce the
+     * same shape, so every traversal order and the printed tree must match.
+     */
+    @Test
+    void testPrimitiveBALST_001_same_shape_as_BALST() {
+        try {
+            for (int i = 0; i < 3000; i++) {
+                ints.insert(i * 31 % 3001, "" + i);
+                reference.insert(i * 31 % 3001, "" + i);
+            }
+            for (int i = 0; i < 3000; i += 2) {
+                ints.remove(i * 31 % 3001);
+                reference.remove(i * 31 % 3001);
+            }
+            Assert.assertEquals(reference.numKeys(), ints.numKeys());
+            Assert.assertEquals(reference.getHeight(), ints.getHeight());
+            Assert.assertEquals(reference.getKeyAtRoot(), ints.getKeyAtRoot());
+            Assert.assertEquals(reference.getInOrderTraversal(), ints.getInOrderTraversal());
+            Assert.assertEquals(reference.getPreOrderTraversal(), ints.getPreOrderTraversal());
+            Assert.assertEquals(reference.getPostOrderTraversal(), ints.getPostOrderTraversal());
+            Assert.assertEquals(reference.getLevelOrderTraversal(), ints.getLevelOrderTraversal());
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            reference.setPrintSink(expected);
+            ints.setPrintSink(actual);
+            reference.print();
+            ints.print();
+            Assert.assertEquals(expected.toString(), actual.toString());
+            Assert.assertEquals(reference.get(31), ints.get(31));
+            Assert.assertFalse(ints.contains(0));
+            Assert.assertEquals("none", ints.getOrDefault(0, "none"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * Freed slots are reused, and duplicate or missing keys throw the
+     * same exceptions as BALST.
+     */
+    @Test
+    void testPrimitiveBALST_002_long_keys_and_errors() {
+        try {
+            long big = 1L << 40;
+            for (long i = 0; i < 100; i++)
+                longs.insert(big + i, "" + i);
+            for (long i = 0; i < 100; i++)
+                longs.remove(big + i);
+            for (long i = 0; i < 100; i++)
+                longs.insert(big - i, "" + i);
+            Assert.assertEquals(100, longs.numKeys());
+            Assert.assertEquals(7, longs.getHeight());
+            Assert.assertEquals(Long.valueOf(big - 99), longs.getInOrderTraversal().get(0));
+            StringBuilder out = new StringBuilder();
+            longs.setPrintSink(out);
+            longs.print();
+            Assert.assertEquals(7, out.toString().split(System.lineSeparator()).length);
+            try {
+                longs.insert(big, "again");
+                fail("duplicate insert did not throw");
+            } catch (DuplicateKeyException e) {
+                // expected
+            }
+            try {
+                longs.remove(big + 1);
+                fail("remove of a missing key did not throw");
+            } catch (KeyNotFoundException e) {
+                // expected
+            }
+            try {
+                longs.insert((Long) null, "null");
+                fail("null key did not throw");
+            } catch (IllegalNullKeyException e) {
+                // expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+
+    /**
+     * IntBALST and LongBALST share everything but their keys, so the same
+     * inserts, removes and lookups must leave both with the same keys in
+     * every order, the same values and the same printed tree.
+     */
+    @Test
+    void testPrimitiveBALST_003_int_and_long_agree() {
+        try {
+            for (int i = 0; i < 5000; i++) {
+                ints.insert(i * 37 % 5003, "" + i);
+                longs.insert((long) (i * 37 % 5003), "" + i);
+            }
+            for (int i = 0; i < 5000; i += 3) {
+                ints.remove(i * 37 % 5003);
+                longs.remove((long) (i * 37 % 5003));
+            }
+            // refill some of the freed slots
+            for (int i = 0; i < 5000; i += 6) {
+                ints.insert(-i, "refill");
+                longs.insert((long) -i, "refill");
+            }
+            Assert.assertEquals(ints.numKeys(), longs.numKeys());
+            Assert.assertEquals(ints.getHeight(), longs.getHeight());
+            Assert.assertEquals(ints.getKeyAtRoot().longValue(), longs.getKeyAtRoot().longValue());
+            Assert.assertEquals(asLongs(ints.getInOrderTraversal()), longs.getInOrderTraversal());
+            Assert.assertEquals(asLongs(ints.getPreOrderTraversal()), longs.getPreOrderTraversal());
+            Assert.assertEquals(asLongs(ints.getPostOrderTraversal()), longs.getPostOrderTraversal());
+            Assert.assertEquals(asLongs(ints.getLevelOrderTraversal()), longs.getLevelOrderTraversal());
+            int[] intKeys = ints.toSortedArray();
+            long[] longKeys = longs.toSortedArray();
+            Assert.assertEquals(intKeys.length, longKeys.length);
+            for (int i = 0; i < intKeys.length; i++) {
+                Assert.assertEquals(intKeys[i], longKeys[i]);
+                Assert.assertEquals(ints.get(intKeys[i]), longs.get(longKeys[i]));
+            }
+            Integer root = ints.getKeyAtRoot();
+            Assert.assertEquals(asLong(ints.getKeyOfLeftChildOf(root)), longs.getKeyOfLeftChildOf(root.longValue()));
+            Assert.assertEquals(asLong(ints.getKeyOfRightChildOf(root)), longs.getKeyOfRightChildOf(root.longValue()));
+            StringBuilder intText = new StringBuilder();
+            StringBuilder longText = new StringBuilder();
+            ints.setPrintSink(intText);
+            longs.setPrintSink(longText);
+            ints.print();
+            longs.print();
+            Assert.assertEquals(intText.toString(), longText.toString());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail( "Unexpected exception 000: "+e.getMessage() );
+        }
+    }
+
+    private static List<Long> asLongs(List<Integer> keys) {
+        List<Long> result = new ArrayList<>(keys.size());
+        for (Integer key : keys)
+            result.add(asLong(key));
+        return result;
+    }
+
+    private static Long asLong(Integer key) {
+        return key == null ? null : Long.valueOf(key.longValue());
+    }
+}
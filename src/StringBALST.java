@@ -0,0 +1,685 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+/**
+ * StringBALST is an AVL tree of String keys that stores each key without
+ * the characters it shares with the keys around it, for key sets such as
+ * URLs or file paths whose neighbours share long prefixes.
+ * <p>
+ * Every key in a subtree lies between the two nearest ancestors the
+ * subtree hangs from, its bounds, and so begins with the longest common
+ * prefix of the bounds. A node stores a prefix length no longer than that
+ * common prefix, and only the characters of its key after it, the suffix;
+ * the prefix is read from the parent, which is always one of the bounds.
+ * Nodes on the outer edges of the tree have a bound missing and store
+ * their whole key. Suffixes made only of Latin-1 characters take one byte
+ * per character, others two.
+ * <p>
+ * A search for q keeps the length of the common prefix of q with the
+ * nearest bound on each side. q shares the shorter of the two with every
+ * key between the bounds, so the comparison at the next node starts after
+ * it instead of at the first character. numCharComparisons() counts the
+ * characters compared.
+ * <p>
+ * Prefixes are as long as possible when a key is inserted. A rotation or
+ * removal that widens the bounds of a node shortens its prefix to match,
+ * taking the missing characters from the node it replaces; a node whose
+ * bounds narrow keeps its prefix, so a tree that has seen many writes may
+ * store somewhat more than the minimum.
+ *
+ * @param <V> is the generic type of value
+ */
+public class StringBALST<V> implements BALSTADT<String, V>, Iterable<String> {
+
+    /**
+     * A node holds the key characters from prefix on; the first prefix
+     * characters are those of its parent. wide suffixes hold two bytes per
+     * character, high byte first.
+     */
+    private static final class Node<V> {
+        int prefix;
+        boolean wide;
+        byte[] suffix;
+        V value;
+        Node<V> left;
+        Node<V> right;
+        int height;
+        int balanceFactor;
+
+        Node(int prefix, String chars, V value) {
+            setSuffix(prefix, chars);
+            this.value = value;
+            height = 1;
+        }
+
+        void setSuffix(int prefix, String chars) {
+            this.prefix = prefix;
+            wide = false;
+            for (int i = 0; i < chars.length() && !wide; i++)
+                wide = chars.charAt(i) > 0xFF;
+            suffix = new byte[wide ? 2 * chars.length() : chars.length()];
+            for (int i = 0; i < chars.length(); i++) {
+                char c = chars.charAt(i);
+                if (wide) {
+                    suffix[2 * i] = (byte) (c >> 8);
+                    suffix[2 * i + 1] = (byte) c;
+                } else
+                    suffix[i] = (byte) c;
+            }
+        }
+
+        /**
+         * @return the character at index of the key, which must be at
+         *         least prefix
+         */
+        char charAt(int index) {
+            int i = index - prefix;
+            return wide ? (char) ((suffix[2 * i] & 0xFF) << 8 | suffix[2 * i + 1] & 0xFF) : (char) (suffix[i] & 0xFF);
+        }
+
+        int length() {
+            return prefix + (wide ? suffix.length / 2 : suffix.length);
+        }
+
+        String suffix() {
+            StringBuilder chars = new StringBuilder(length() - prefix);
+            for (int i = prefix; i < length(); i++)
+                chars.append(charAt(i));
+            return chars.toString();
+        }
+
+        /**
+         * @param parentKey the key of the parent, or null at the root
+         */
+        String key(String parentKey) {
+            return prefix == 0 ? suffix() : parentKey.substring(0, prefix) + suffix();
+        }
+    }
+
+    private Node<V> root;
+
+    private int numKeys;
+
+    private long numCharComparisons;
+
+    private int modCount;
+
+    /* where print() writes */
+    private final BALSTPrintSink printSink = new BALSTPrintSink();
+
+    /**
+     * @return the number of key characters compared by all operations so far
+     */
+    public long numCharComparisons() {
+        return numCharComparisons;
+    }
+
+    /**
+     * @return the number of bytes the suffixes of all keys take up
+     */
+    public long numSuffixBytes() {
+        long bytes = 0;
+        ArrayDeque<Node<V>> stack = new ArrayDeque<>();
+        if (root != null)
+            stack.push(root);
+        while (!stack.isEmpty()) {
+            Node<V> node = stack.pop();
+            bytes += node.suffix.length;
+            if (node.left != null)
+                stack.push(node.left);
+            if (node.right != null)
+                stack.push(node.right);
+        }
+        return bytes;
+    }
+
+    /**
+     * Compares key with the key of node, skipping the first from characters,
+     * which they must share; from must be at least node.prefix.
+     *
+     * @return 0 if key equals the key of node, otherwise i + 1 if key is
+     *         greater and -(i + 1) if it is smaller, where i is the length
+     *         of their common prefix
+     */
+    private int compare(String key, Node<V> node, int from) {
+        int length = Math.min(key.length(), node.length());
+        int i = from;
+        while (i < length) {
+            numCharComparisons++;
+            char a = key.charAt(i);
+            char b = node.charAt(i);
+            if (a != b)
+                return a < b ? -(i + 1) : i + 1;
+            i++;
+        }
+        if (key.length() == node.length())
+            return 0;
+        return key.length() < node.length() ? -(i + 1) : i + 1;
+    }
+
+    /**
+     * @return the node holding key, or null if it is not in the tree
+     */
+    private Node<V> search(String key) {
+        Node<V> node = root;
+        int lowShared = 0;
+        int highShared = 0;
+        while (node != null) {
+            int compare = compare(key, node, Math.min(lowShared, highShared));
+            if (compare == 0)
+                return node;
+            if (compare < 0) {
+                highShared = -compare - 1;
+                node = node.left;
+            } else {
+                lowShared = compare - 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key that is at the root of the tree.
+     * If the tree is empty, returns null.
+     *
+     * @return key found at root node, or null
+     */
+    @Override
+    public String getKeyAtRoot() {
+        return root == null ? null : root.suffix();
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the key of the left child.
+     * If the node is found but no left child, return null.
+     *
+     * @param key A key to search for
+     * @return The key of the left child of the found key
+     * @throws IllegalNullKeyException if key argument is null
+     * @throws KeyNotFoundException    if key is not found in this tree
+     */
+    @Override
+    public String getKeyOfLeftChildOf(String key) throws IllegalNullKeyException, KeyNotFoundException {
+        return childKey(key, find(key).left);
+    }
+
+    /**
+     * Tries to find a node with a key that matches the specified key.
+     * If a matching node is found, it returns the key of the right child.
+     * If the node is found but no right child, return null.
+     *
+     * @param key A key to search for
+     * @return The key of the right child of the found key
+     * @throws IllegalNullKeyException if key argument is null
+     * @throws KeyNotFoundException    if key is not found in this tree
+     */
+    @Override
+    public String getKeyOfRightChildOf(String key) throws IllegalNullKeyException, KeyNotFoundException {
+        return childKey(key, find(key).right);
+    }
+
+    private Node<V> find(String key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        Node<V> node = search(key);
+        if (node == null)
+            throw new KeyNotFoundException();
+        return node;
+    }
+
+    private static String childKey(String key, Node<?> child) {
+        return child == null ? null : child.key(key);
+    }
+
+    /**
+     * Returns the height of this tree, 0 if it is empty.
+     *
+     * @return the number of levels that contain keys
+     */
+    @Override
+    public int getHeight() {
+        return height(root);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * Returns the keys of the data structure in sorted order.
+     *
+     * @return List of Keys in-order
+     */
+    @Override
+    public List<String> getInOrderTraversal() {
+        List<String> list = new ArrayList<>(numKeys);
+        traverse(root, null, list, 0);
+        return list;
+    }
+
+    /**
+     * Returns the keys of the data structure in pre-order traversal order.
+     *
+     * @return List of Keys in pre-order
+     */
+    @Override
+    public List<String> getPreOrderTraversal() {
+        List<String> list = new ArrayList<>(numKeys);
+        traverse(root, null, list, -1);
+        return list;
+    }
+
+    /**
+     * Returns the keys of the data structure in post-order traversal order.
+     *
+     * @return List of Keys in post-order
+     */
+    @Override
+    public List<String> getPostOrderTraversal() {
+        List<String> list = new ArrayList<>(numKeys);
+        traverse(root, null, list, 1);
+        return list;
+    }
+
+    /**
+     * Adds the keys of the subtree at node to list, node before its
+     * children if position is negative, between them if it is 0 and after
+     * them if it is positive.
+     */
+    private static void traverse(Node<?> node, String parentKey, List<String> list, int position) {
+        if (node == null)
+            return;
+        String key = node.key(parentKey);
+        if (position < 0)
+            list.add(key);
+        traverse(node.left, key, list, position);
+        if (position == 0)
+            list.add(key);
+        traverse(node.right, key, list, position);
+        if (position > 0)
+            list.add(key);
+    }
+
+    /**
+     * Returns the keys of the data structure in level-order traversal order.
+     *
+     * @return List of Keys in level-order
+     */
+    @Override
+    public List<String> getLevelOrderTraversal() {
+        List<String> list = new ArrayList<>(numKeys);
+        ArrayDeque<Node<V>> nodes = new ArrayDeque<>();
+        ArrayDeque<String> keys = new ArrayDeque<>();
+        if (root != null) {
+            nodes.add(root);
+            keys.add(root.suffix());
+        }
+        while (!nodes.isEmpty()) {
+            Node<V> node = nodes.poll();
+            String key = keys.poll();
+            list.add(key);
+            if (node.left != null) {
+                nodes.add(node.left);
+                keys.add(node.left.key(key));
+            }
+            if (node.right != null) {
+                nodes.add(node.right);
+                keys.add(node.right.key(key));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns an iterator over the keys in order. The tree must not be
+     * changed while it is in use, or ConcurrentModificationException is
+     * thrown.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private final int expectedModCount = modCount;
+            private final ArrayDeque<Node<V>> nodes = new ArrayDeque<>();
+            private final ArrayDeque<String> keys = new ArrayDeque<>();
+
+            {
+                descend(root, null);
+            }
+
+            private void descend(Node<V> node, String parentKey) {
+                for (; node != null; node = node.left) {
+                    parentKey = node.key(parentKey);
+                    nodes.push(node);
+                    keys.push(parentKey);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                return !nodes.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Node<V> node = nodes.pop();
+                String key = keys.pop();
+                descend(node.right, key);
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Add the key,value pair to the data structure and increase the number of keys.
+     * If key is null, throw IllegalNullKeyException;
+     * If key is already in data structure, throw DuplicateKeyException();
+     * Do not increase the num of keys in the structure, if key,value pair is not added.
+     */
+    @Override
+    public void insert(String key, V value) throws IllegalNullKeyException, DuplicateKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        root = insertHelper(root, key, value, 0, 0);
+        numKeys++;
+        modCount++;
+    }
+
+    /**
+     * @param lowShared  length of the common prefix of key and the low bound,
+     *                   0 if there is none
+     * @param highShared length of the common prefix of key and the high bound,
+     *                   0 if there is none
+     * @return the new root of the subtree
+     */
+    private Node<V> insertHelper(Node<V> node, String key, V value, int lowShared, int highShared)
+            throws DuplicateKeyException {
+        int shared = Math.min(lowShared, highShared);
+        // the bounds of a new leaf share exactly the prefix key shares with both
+        if (node == null)
+            return new Node<>(shared, key.substring(shared), value);
+        int compare = compare(key, node, shared);
+        if (compare == 0)
+            throw new DuplicateKeyException();
+        if (compare < 0)
+            node.left = insertHelper(node.left, key, value, lowShared, -compare - 1);
+        else
+            node.right = insertHelper(node.right, key, value, compare - 1, highShared);
+        return rebalance(node);
+    }
+
+    /**
+     * If key is found, remove the key,value pair from the data structure and decrease num keys.
+     * If key is not found, do not decrease the number of keys in the data structure.
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public boolean remove(String key) throws IllegalNullKeyException, KeyNotFoundException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        root = removeHelper(root, key, 0, 0);
+        numKeys--;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * @return the new root of the subtree
+     */
+    private Node<V> removeHelper(Node<V> node, String key, int lowShared, int highShared) throws KeyNotFoundException {
+        if (node == null)
+            throw new KeyNotFoundException();
+        int compare = compare(key, node, Math.min(lowShared, highShared));
+        if (compare < 0)
+            node.left = removeHelper(node.left, key, lowShared, -compare - 1);
+        else if (compare > 0)
+            node.right = removeHelper(node.right, key, compare - 1, highShared);
+        else if (node.left == null || node.right == null) {
+            Node<V> child = node.left != null ? node.left : node.right;
+            if (child != null)
+                lift(child, node);
+            return child;
+        } else {
+            Node<V> successor = node.right;
+            while (successor.left != null)
+                successor = successor.left;
+            // node is the low bound of its successor, so they share at least successor.prefix characters
+            int shared = -compare(key, successor, successor.prefix) - 1;
+            node.right = removeSmallest(node.right);
+            lift(successor, node);
+            successor.left = node.left;
+            successor.right = node.right;
+            // the right edge of the left subtree now has the successor as high bound instead of key
+            for (Node<V> edge = successor.left; edge != null; edge = edge.right)
+                if (edge.prefix > shared)
+                    edge.setSuffix(shared, key.substring(shared, edge.prefix) + edge.suffix());
+            node = successor;
+        }
+        return rebalance(node);
+    }
+
+    /**
+     * Unlinks the smallest node of the subtree at node.
+     *
+     * @return the new root of the subtree
+     */
+    private Node<V> removeSmallest(Node<V> node) {
+        if (node.left == null) {
+            if (node.right != null)
+                lift(node.right, node);
+            return node.right;
+        }
+        node.left = removeSmallest(node.left);
+        return rebalance(node);
+    }
+
+    /**
+     * Gives child, which is taking the place of its parent, the bounds of
+     * the parent: shortens its prefix to that of the parent, prepending the
+     * characters they share in between to its suffix.
+     */
+    private static void lift(Node<?> child, Node<?> parent) {
+        if (child.prefix > parent.prefix)
+            child.setSuffix(parent.prefix, parent.suffix().substring(0, child.prefix - parent.prefix) + child.suffix());
+    }
+
+    private void update(Node<V> node) {
+        int leftHeight = height(node.left);
+        int rightHeight = height(node.right);
+        node.height = 1 + Math.max(leftHeight, rightHeight);
+        node.balanceFactor = leftHeight - rightHeight;
+    }
+
+    /**
+     * @return the new root of the subtree
+     */
+    private Node<V> rebalance(Node<V> node) {
+        update(node);
+        if (node.balanceFactor > 1) {
+            if (node.left.balanceFactor < 0)
+                node.left = leftRotation(node.left);
+            return rightRotation(node);
+        } else if (node.balanceFactor < -1) {
+            if (node.right.balanceFactor > 0)
+                node.right = rightRotation(node.right);
+            return leftRotation(node);
+        }
+        return node;
+    }
+
+    /**
+     * @return the new root of the subtree
+     */
+    private Node<V> rightRotation(Node<V> node) {
+        Node<V> leftChild = node.left;
+        node.left = leftChild.right;
+        leftChild.right = node;
+        lift(leftChild, node);
+        update(node);
+        update(leftChild);
+        return leftChild;
+    }
+
+    /**
+     * @return the new root of the subtree
+     */
+    private Node<V> leftRotation(Node<V> node) {
+        Node<V> rightChild = node.right;
+        node.right = rightChild.left;
+        rightChild.left = node;
+        lift(rightChild, node);
+        update(node);
+        update(rightChild);
+        return rightChild;
+    }
+
+    /**
+     * Returns the value associated with the specified key
+     *
+     * Does not remove key or decrease number of keys
+     * If key is null, throw IllegalNullKeyException
+     * If key is not found, throw KeyNotFoundException().
+     */
+    @Override
+    public V get(String key) throws IllegalNullKeyException, KeyNotFoundException {
+        return find(key).value;
+    }
+
+    /**
+     * Returns true if the key is in the data structure
+     * If key is null, throw IllegalNullKeyException
+     * Returns false if key is null or not present
+     */
+    @Override
+    public boolean contains(String key) throws IllegalNullKeyException {
+        if (key == null)
+            throw new IllegalNullKeyException();
+        return search(key) != null;
+    }
+
+    /**
+     * Returns the number of key,value pairs in the data structure
+     */
+    @Override
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /**
+     * Checks every structural invariant in O(n): keys in order, heights
+     * and balance factors correct and within AVL bounds, every prefix no
+     * longer than the common prefix of the bounds of its node, and numKeys.
+     *
+     * @throws IllegalStateException describing the first violation found
+     */
+    public void verifyInvariants() {
+        int count = verifyNode(root, null, null, null);
+        if (count != numKeys)
+            throw new IllegalStateException("numKeys is " + numKeys + " but the tree holds " + count);
+    }
+
+    /**
+     * @return the number of nodes in the subtree
+     */
+    private int verifyNode(Node<V> node, String parentKey, String low, String high) {
+        if (node == null)
+            return 0;
+        String key = node.key(parentKey);
+        if ((low != null && key.compareTo(low) <= 0) || (high != null && key.compareTo(high) >= 0))
+            throw new IllegalStateException(key + " is out of order");
+        int bound = low == null || high == null ? 0 : sharedPrefix(low, high);
+        if (node.prefix > bound)
+            throw new IllegalStateException(key + " has prefix " + node.prefix + " but its bounds share " + bound);
+        int count = 1 + verifyNode(node.left, key, low, key) + verifyNode(node.right, key, key, high);
+        int leftHeight = height(node.left);
+        int rightHeight = height(node.right);
+        if (node.height != 1 + Math.max(leftHeight, rightHeight) || node.balanceFactor != leftHeight - rightHeight)
+            throw new IllegalStateException(key + " has a stale height or balance factor");
+        if (Math.abs(node.balanceFactor) > 1)
+            throw new IllegalStateException(key + " is out of balance");
+        return count;
+    }
+
+    private static int sharedPrefix(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i))
+            i++;
+        return i;
+    }
+
+    /**
+     * Print the tree one level per line like BALST.print(), with missing
+     * children shown as X on every level below their parent.
+     */
+    @Override
+    public void print() {
+        StringBuilder text = new StringBuilder();
+        if (root == null)
+            text.append("Tree does not exist");
+        List<Node<V>> level = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        if (root != null) {
+            level.add(root);
+            keys.add(root.suffix());
+        }
+        boolean hasNode = root != null;
+        while (hasNode) {
+            hasNode = false;
+            List<Node<V>> nextLevel = new ArrayList<>();
+            List<String> nextKeys = new ArrayList<>();
+            for (int i = 0; i < level.size(); i++) {
+                Node<V> node = level.get(i);
+                String key = keys.get(i);
+                text.append(node == null ? "X" : key).append("  ");
+                if (node == null) {
+                    nextLevel.add(null);
+                    nextKeys.add(null);
+                    continue;
+                }
+                for (Node<V> child : Arrays.asList(node.left, node.right)) {
+                    nextLevel.add(child);
+                    nextKeys.add(child == null ? null : child.key(key));
+                }
+                hasNode |= node.left != null || node.right != null;
+            }
+            text.append(System.lineSeparator());
+            level = nextLevel;
+            keys = nextKeys;
+        }
+        printSink.print(text);
+    }
+
+    /**
+     * Sets where print() writes the tree. The tree is always rendered into a
+     * buffer first and handed to the sink with a single append.
+     *
+     * @param sink destination of print(), System.out by default
+     */
+    public void setPrintSink(Appendable sink) {
+        setPrintSink(sink, null);
+    }
+
+    /**
+     * Sets where print() writes the tree and which executor performs the
+     * write. The tree is rendered on the calling thread, so only the I/O is
+     * moved off it. A null executor writes on the calling thread.
+     *
+     * @param sink     destination of print()
+     * @param executor runs the writes, or null
+     */
+    public void setPrintSink(Appendable sink, Executor executor) {
+        printSink.set(sink, executor);
+    }
+}
@@ -0,0 +1,155 @@
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StringBALSTTest {
+
+    StringBALST<Integer> tree;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeEach
+    void setUp() throws Exception {
+        tree = new StringBALST<Integer>();
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @AfterEach
+    void tearDown() throws Exception {
+        tree = null;
+    }
+
+    /**
+     * Keys that are prefixes of each other and keys outside Latin-1 order
+     * like String.compareTo, and every traversal gives back whole keys.
+     */
+    @Test
+    void testStringBALST_001_structure() {
+        try {
+            Assert.assertNull(tree.getKeyAtRoot());
+            String[] keys = {"app", "apple", "applet", "ap", "apply", "b", "", "\u20ac1", "\u20ac", "apple\u20ac"};
+            for (int i = 0; i < keys.length; i++)
+                tree.insert(keys[i], i);
+            tree.verifyInvariants();
+            List<String> sorted = new ArrayList<>(Arrays.asList(keys));
+            sorted.sort(null);
+            Assert.assertEquals(sorted, tree.getInOrderTraversal());
+            List<String> iterated = new ArrayList<>();
+            for (String key : tree)
+                iterated.add(key);
+            Assert.assertEquals(sorted, iterated);
+            Assert.assertEquals(keys.length, tree.getPreOrderTraversal().size());
+            Assert.assertEquals(tree.getKeyAtRoot(), tree.getPreOrderTraversal().get(0));
+            Assert.assertEquals(tree.getKeyAtRoot(), tree.getLevelOrderTraversal().get(0));
+            Assert.assertEquals(tree.getKeyAtRoot(), tree.getPostOrderTraversal().get(keys.length - 1));
+            for (int i = 0; i < keys.length; i++)
+                Assert.assertEquals(Integer.valueOf(i), tree.get(keys[i]));
+            Assert.assertFalse(tree.contains("appl"));
+            Assert.assertFalse(tree.contains("applez"));
+
+            String root = tree.getKeyAtRoot();
+            String left = tree.getKeyOfLeftChildOf(root);
+            String right = tree.getKeyOfRightChildOf(root);
+            Assert.assertTrue(left.compareTo(root) < 0 && right.compareTo(root) > 0);
+
+            // the printed tree shows whole keys, level by level like BALST
+            BALST<String,Integer> reference = new BALST<String,Integer>();
+            for (int i = 0; i < keys.length; i++)
+                reference.insert(keys[i], i);
+            StringBuilder printed = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            reference.setPrintSink(printed);
+            tree.setPrintSink(actual);
+            reference.print();
+            tree.print();
+            Assert.assertEquals(printed.toString(), actual.toString());
+
+            try {
+                tree.insert("apple", 0);
+                fail("Expected DuplicateKeyException");
+            } catch (DuplicateKeyException expected) { }
+            try {
+                tree.remove("appl");
+                fail("Expected KeyNotFoundException");
+            } catch (KeyNotFoundException expected) { }
+            try {
+                tree.get(null);
+                fail("Expected IllegalNullKeyException");
+            } catch (IllegalNullKeyException expected) { }
+            Assert.assertEquals(keys.length, tree.numKeys());
+
+            for (String key : keys) {
+                tree.remove(key);
+                tree.verifyInvariants();
+            }
+            Assert.assertEquals(0, tree.numKeys());
+            Assert.assertEquals(0, tree.getHeight());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception AVL 000: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Random inserts and removes of URLs that share long prefixes agree
+     * with TreeMap, and the tree stores and compares far fewer characters
+     * than the keys have.
+     */
+    @Test
+    void testStringBALST_002_random_against_TreeMap() {
+        try {
+            TreeMap<String,Integer> expected = new TreeMap<String,Integer>();
+            Random random = new Random(25);
+            String[] hosts = {"https://example.com/", "https://example.org/", "https://www.example.com/"};
+            for (int i = 0; i < 30000; i++) {
+                String key = hosts[random.nextInt(hosts.length)] + "users/" + random.nextInt(50)
+                        + "/items/" + random.nextInt(100);
+                if (random.nextInt(3) == 0) {
+                    Assert.assertEquals(expected.containsKey(key), tree.contains(key));
+                    if (expected.remove(key) != null)
+                        tree.remove(key);
+                } else if (!expected.containsKey(key)) {
+                    expected.put(key, i);
+                    tree.insert(key, i);
+                }
+                if (i % 3000 == 0)
+                    tree.verifyInvariants();
+            }
+            tree.verifyInvariants();
+            Assert.assertEquals(expected.size(), tree.numKeys());
+            Assert.assertEquals(new ArrayList<>(expected.keySet()), tree.getInOrderTraversal());
+
+            long chars = 0;
+            for (String key : expected.keySet())
+                chars += key.length();
+            Assert.assertTrue(tree.numSuffixBytes() < chars / 2);
+
+            // A plain search compares at least the whole shared prefix of the host at every level.
+            long before = tree.numCharComparisons();
+            for (String key : expected.keySet())
+                Assert.assertEquals(expected.get(key), tree.get(key));
+            double perLookup = (double) (tree.numCharComparisons() - before) / expected.size();
+            Assert.assertTrue(perLookup < tree.getHeight() * hosts[0].length());
+
+            for (String key : expected.keySet())
+                tree.remove(key);
+            tree.verifyInvariants();
+            Assert.assertEquals(0, tree.numKeys());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Unexpected exception AVL 000: "+e.getMessage());
+        }
+    }
+}